@@ -14,18 +14,17 @@
 package org.openmrs.module.auditlog;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.openmrs.User;
 import org.openmrs.module.auditlog.util.AuditLogUtil;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 /**
  * Encapsulates data for a single audit log entry
@@ -34,7 +33,10 @@ public class AuditLog implements Serializable {
 	
 	private static final long serialVersionUID = 1L;
 	
-	private static final Log log = LogFactory.getLog(AuditLog.class);
+	/**
+	 * The maximum length of the stored names of the changed properties
+	 */
+	public static final int MAX_CHANGED_PROPERTIES_LENGTH = 1024;
 	
 	private Integer auditLogId;
 	
@@ -53,10 +55,14 @@ public class AuditLog implements Serializable {
 	
 	private String uuid;
 	
+	private Set<PropertyChange> propertyChanges;
+	
 	private transient Map<String, String[]> changes;
 	
 	/**
-	 * Xml for new and old values in case of edited fields
+	 * The new and old values in case of edited fields, new logs store them in the compact format
+	 * generated by {@link AuditLogUtil#encodeChanges(Map)} while logs created by earlier versions of
+	 * the module hold xml like below
 	 * 
 	 * <pre>
 	 * 		<changes>
@@ -72,6 +78,13 @@ public class AuditLog implements Serializable {
 	 */
 	private String changesXml;
 	
+	//The number of changed properties, it is null for logs created by earlier versions of the module
+	//until they are backfilled
+	private Integer changeCount;
+	
+	//The comma separated sorted names of the changed properties
+	private String changedProperties;
+	
 	public enum Action {
 		CREATED, UPDATED, DELETED
 		//, REVERTED
@@ -198,6 +211,30 @@ public class AuditLog implements Serializable {
 		this.uuid = uuid;
 	}
 	
+	/**
+	 * @return the propertyChanges
+	 */
+	public Set<PropertyChange> getPropertyChanges() {
+		if (propertyChanges == null)
+			propertyChanges = new LinkedHashSet<PropertyChange>();
+		
+		return propertyChanges;
+	}
+	
+	/**
+	 * @param propertyChanges the propertyChanges to set
+	 */
+	public void setPropertyChanges(Set<PropertyChange> propertyChanges) {
+		this.propertyChanges = propertyChanges;
+	}
+	
+	/**
+	 * @return the changesXml
+	 */
+	public String getChangesXml() {
+		return changesXml;
+	}
+	
 	/**
 	 * @param newAndPreviousValuesXml the newAndPreviousValuesXml to set
 	 */
@@ -223,7 +260,7 @@ public class AuditLog implements Serializable {
 	 */
 	public Map<String, String[]> getChanges() {
 		if (StringUtils.isNotBlank(changesXml) && changes == null)
-			changes = convertChangesXmlToMap(changesXml);
+			changes = AuditLogUtil.decodeChanges(changesXml);
 		else if (changes == null)
 			changes = new HashMap<String, String[]>();
 		
@@ -231,33 +268,56 @@ public class AuditLog implements Serializable {
 	}
 	
 	/**
-	 * Takes the changes xml and converts it to a map where the key if the property name and the
-	 * value is a String array of length 2 with the new value at index 0 and the previous value at
-	 * index 1
+	 * Gets the number of changed properties, the stored count is returned if there is one otherwise
+	 * unlike {@link #getChanges()} it doesn't convert the changes xml if it hasn't yet been
 	 * 
-	 * @param changesXml the xml to convert
-	 * @return the properties names mapped to their new and previous values
+	 * @return the number of changed properties
 	 */
-	private static Map<String, String[]> convertChangesXmlToMap(String changesXml) {
-		Map<String, String[]> map = new HashMap<String, String[]>();
-		Document doc;
-		try {
-			doc = AuditLogUtil.createDocument(changesXml);
-			Element changesElement = doc.getDocumentElement();
-			if (changesElement != null) {
-				NodeList propertyElements = changesElement.getElementsByTagName(AuditLogUtil.NODE_PROPERTY);
-				for (int i = 0; i < propertyElements.getLength(); i++) {
-					Element propertyEle = (Element) propertyElements.item(i);
-					String newValue = AuditLogUtil.getPreviousOrNewPropertyValue(propertyEle, true);
-					String previousValue = AuditLogUtil.getPreviousOrNewPropertyValue(propertyEle, false);
-					map.put(propertyEle.getAttribute(AuditLogUtil.ATTRIBUTE_NAME), new String[] { newValue, previousValue });
-				}
-			}
-		}
-		catch (Exception e) {
-			log.error("Failed to parse changes xml", e);
+	public int getChangeCount() {
+		if (changeCount != null)
+			return changeCount;
+		if (changes != null)
+			return changes.size();
+		if (StringUtils.isBlank(changesXml))
+			return 0;
+		
+		return AuditLogUtil.countChanges(changesXml);
+	}
+	
+	/**
+	 * @return true if the number and the names of the changed properties are stored
+	 */
+	public boolean hasStoredChangeCount() {
+		return changeCount != null;
+	}
+	
+	/**
+	 * @return the comma separated names of the changed properties in alphabetical order, it is null
+	 *         if they aren't stored
+	 */
+	public String getChangedProperties() {
+		return changedProperties;
+	}
+	
+	/**
+	 * Sets the number and the names of the changed properties that get stored with this log so that
+	 * they can be displayed without reading the changes, names that don't fit in
+	 * {@link #MAX_CHANGED_PROPERTIES_LENGTH} characters are left out of the stored names
+	 * 
+	 * @param propertyNames the names of the changed properties
+	 */
+	public void setChangedProperties(Collection<String> propertyNames) {
+		changeCount = propertyNames.size();
+		StringBuilder sb = new StringBuilder();
+		for (String propertyName : new TreeSet<String>(propertyNames)) {
+			int length = sb.length() + ((sb.length() > 0) ? 1 : 0) + propertyName.length();
+			if (length > MAX_CHANGED_PROPERTIES_LENGTH)
+				break;
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(propertyName);
 		}
-		return map;
+		changedProperties = sb.toString();
 	}
 	
 	/**
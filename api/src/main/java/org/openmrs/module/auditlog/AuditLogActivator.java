@@ -15,7 +15,11 @@ package org.openmrs.module.auditlog;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.auditlog.api.db.AuditLogWriter;
+import org.openmrs.module.auditlog.util.AuditLogConstants;
+import org.openmrs.module.auditlog.util.AuditLogUtil;
 
 /**
  * This class contains the logic that is run every time this module is either started or shutdown
@@ -24,6 +28,10 @@ public class AuditLogActivator extends BaseModuleActivator {
 	
 	private static final Log log = LogFactory.getLog(AuditLogActivator.class);
 	
+	private static final int DEFAULT_WRITER_QUEUE_SIZE = 10000;
+	
+	private static final int DEFAULT_WRITER_THREAD_COUNT = 1;
+	
 	/**
 	 * @see org.openmrs.module.BaseModuleActivator#willStart()
 	 */
@@ -38,10 +46,38 @@ public class AuditLogActivator extends BaseModuleActivator {
 	 */
 	@Override
 	public void started() {
+		//build the index and the monitoring settings up front so the first intercepted operations
+		//don't have to read them in the middle of a flush
+		AuditLogUtil.loadMappedClassIndex();
+		AuditLogUtil.loadMonitoringConfiguration();
+		
+		//0 disables compression
+		AuditLogUtil.setCompressionThreshold(getIntegerGlobalProperty(AuditLogConstants.GP_COMPRESSION_THRESHOLD,
+		    AuditLogUtil.getDefaultCompressionThreshold(), 0));
+		
+		String asyncWritesEnabled = Context.getAdministrationService().getGlobalProperty(
+		    AuditLogConstants.GP_ASYNC_WRITES_ENABLED, "false");
+		if (Boolean.valueOf(asyncWritesEnabled.trim())) {
+			int queueSize = getIntegerGlobalProperty(AuditLogConstants.GP_WRITER_QUEUE_SIZE, DEFAULT_WRITER_QUEUE_SIZE, 1);
+			int threadCount = getIntegerGlobalProperty(AuditLogConstants.GP_WRITER_THREAD_COUNT,
+			    DEFAULT_WRITER_THREAD_COUNT, 1);
+			getAuditLogWriter().start(queueSize, threadCount);
+		}
+		
 		if (log.isInfoEnabled())
 			log.info("Started Audit Log Module...");
 	}
 	
+	/**
+	 * @see org.openmrs.module.BaseModuleActivator#contextRefreshed()
+	 */
+	@Override
+	public void contextRefreshed() {
+		//the mappings may have changed, rebuild the index and the verdicts computed from them
+		AuditLogUtil.loadMappedClassIndex();
+		AuditLogUtil.loadMonitoringConfiguration();
+	}
+	
 	/**
 	 * @see org.openmrs.module.BaseModuleActivator#willStop()
 	 */
@@ -49,6 +85,9 @@ public class AuditLogActivator extends BaseModuleActivator {
 	public void willStop() {
 		if (log.isDebugEnabled())
 			log.debug("Stopping Audit Log Module...");
+		
+		//make sure audit logs waiting in the queue get written
+		getAuditLogWriter().shutdown();
 	}
 	
 	/**
@@ -59,4 +98,36 @@ public class AuditLogActivator extends BaseModuleActivator {
 		if (log.isInfoEnabled())
 			log.info("Stopped Audit Log Module...");
 	}
+	
+	private AuditLogWriter getAuditLogWriter() {
+		return Context.getRegisteredComponents(AuditLogWriter.class).get(0);
+	}
+	
+	/**
+	 * Gets the value of the global property with the specified name as an integer that is at least
+	 * the specified minimum value
+	 * 
+	 * @param propertyName the name of the global property
+	 * @param defaultValue the value to return if the global property is not set or is invalid
+	 * @param minValue the smallest valid value
+	 * @return the integer value
+	 */
+	private int getIntegerGlobalProperty(String propertyName, int defaultValue, int minValue) {
+		String value = Context.getAdministrationService().getGlobalProperty(propertyName);
+		if (value == null || value.trim().length() == 0)
+			return defaultValue;
+		
+		try {
+			int intValue = Integer.parseInt(value.trim());
+			if (intValue >= minValue)
+				return intValue;
+		}
+		catch (NumberFormatException e) {
+			//ignore and fall through
+		}
+		
+		log.warn("Invalid value '" + value + "' for the global property " + propertyName + ", using the default value "
+		        + defaultValue);
+		return defaultValue;
+	}
 }
@@ -0,0 +1,203 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog;
+
+import java.util.Date;
+
+import org.openmrs.module.auditlog.AuditLog.Action;
+
+/**
+ * The fields of an {@link AuditLog} that are needed to list it, it is read with a projection so
+ * that listing audit logs doesn't load their changes or the users that triggered them
+ */
+public class AuditLogSummary {
+	
+	private Integer auditLogId;
+	
+	private String uuid;
+	
+	private String className;
+	
+	private String objectUuid;
+	
+	private Action action;
+	
+	private Date dateCreated;
+	
+	private Integer userId;
+	
+	private String userUuid;
+	
+	private String username;
+	
+	//the number of changed properties if the object was updated, null if it isn't stored yet
+	private Integer changeCount;
+	
+	//the comma separated names of the changed properties, null if they aren't stored
+	private String changedProperties;
+	
+	/**
+	 * @return the auditLogId
+	 */
+	public Integer getAuditLogId() {
+		return auditLogId;
+	}
+	
+	/**
+	 * @param auditLogId the auditLogId to set
+	 */
+	public void setAuditLogId(Integer auditLogId) {
+		this.auditLogId = auditLogId;
+	}
+	
+	/**
+	 * @return the uuid
+	 */
+	public String getUuid() {
+		return uuid;
+	}
+	
+	/**
+	 * @param uuid the uuid to set
+	 */
+	public void setUuid(String uuid) {
+		this.uuid = uuid;
+	}
+	
+	/**
+	 * @return the className
+	 */
+	public String getClassName() {
+		return className;
+	}
+	
+	/**
+	 * @param className the className to set
+	 */
+	public void setClassName(String className) {
+		this.className = className;
+	}
+	
+	/**
+	 * @return the objectUuid
+	 */
+	public String getObjectUuid() {
+		return objectUuid;
+	}
+	
+	/**
+	 * @param objectUuid the objectUuid to set
+	 */
+	public void setObjectUuid(String objectUuid) {
+		this.objectUuid = objectUuid;
+	}
+	
+	/**
+	 * @return the action
+	 */
+	public Action getAction() {
+		return action;
+	}
+	
+	/**
+	 * @param action the action to set
+	 */
+	public void setAction(Action action) {
+		this.action = action;
+	}
+	
+	/**
+	 * @return the dateCreated
+	 */
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+	
+	/**
+	 * @param dateCreated the dateCreated to set
+	 */
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+	
+	/**
+	 * @return the id of the user that triggered the operation, null if there was none
+	 */
+	public Integer getUserId() {
+		return userId;
+	}
+	
+	/**
+	 * @param userId the userId to set
+	 */
+	public void setUserId(Integer userId) {
+		this.userId = userId;
+	}
+	
+	/**
+	 * @return the userUuid
+	 */
+	public String getUserUuid() {
+		return userUuid;
+	}
+	
+	/**
+	 * @param userUuid the userUuid to set
+	 */
+	public void setUserUuid(String userUuid) {
+		this.userUuid = userUuid;
+	}
+	
+	/**
+	 * @return the username
+	 */
+	public String getUsername() {
+		return username;
+	}
+	
+	/**
+	 * @param username the username to set
+	 */
+	public void setUsername(String username) {
+		this.username = username;
+	}
+	
+	/**
+	 * @return the changeCount, null for audit logs whose change count wasn't backfilled yet
+	 */
+	public Integer getChangeCount() {
+		return changeCount;
+	}
+	
+	/**
+	 * @param changeCount the changeCount to set
+	 */
+	public void setChangeCount(Integer changeCount) {
+		this.changeCount = changeCount;
+	}
+	
+	/**
+	 * @return the changedProperties
+	 */
+	public String getChangedProperties() {
+		return changedProperties;
+	}
+	
+	/**
+	 * @param changedProperties the changedProperties to set
+	 */
+	public void setChangedProperties(String changedProperties) {
+		this.changedProperties = changedProperties;
+	}
+}
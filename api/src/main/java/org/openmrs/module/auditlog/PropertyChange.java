@@ -0,0 +1,141 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang.ObjectUtils;
+
+/**
+ * A change to a single property of the object of an {@link AuditLog}, property changes are stored
+ * in a table of their own next to the changes of the audit log so that logs can be queried by the
+ * changed property. The values are stored in full like in {@link AuditLog#getChanges()}.
+ */
+public class PropertyChange implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	//the fully qualified java class name of the object that owns the property
+	private String className;
+	
+	private String propertyName;
+	
+	private String previousValue;
+	
+	private String newValue;
+	
+	/**
+	 * Default constructor
+	 */
+	public PropertyChange() {
+	}
+	
+	/**
+	 * Convenience constructor
+	 * 
+	 * @param className the fully qualified class name of the object that owns the property
+	 * @param propertyName the name of the changed property
+	 * @param previousValue the previous value
+	 * @param newValue the new value
+	 */
+	public PropertyChange(String className, String propertyName, String previousValue, String newValue) {
+		this.className = className;
+		this.propertyName = propertyName;
+		this.previousValue = previousValue;
+		this.newValue = newValue;
+	}
+	
+	/**
+	 * @return the className
+	 */
+	public String getClassName() {
+		return className;
+	}
+	
+	/**
+	 * @param className the className to set
+	 */
+	public void setClassName(String className) {
+		this.className = className;
+	}
+	
+	/**
+	 * @return the propertyName
+	 */
+	public String getPropertyName() {
+		return propertyName;
+	}
+	
+	/**
+	 * @param propertyName the propertyName to set
+	 */
+	public void setPropertyName(String propertyName) {
+		this.propertyName = propertyName;
+	}
+	
+	/**
+	 * @return the previousValue
+	 */
+	public String getPreviousValue() {
+		return previousValue;
+	}
+	
+	/**
+	 * @param previousValue the previousValue to set
+	 */
+	public void setPreviousValue(String previousValue) {
+		this.previousValue = previousValue;
+	}
+	
+	/**
+	 * @return the newValue
+	 */
+	public String getNewValue() {
+		return newValue;
+	}
+	
+	/**
+	 * @param newValue the newValue to set
+	 */
+	public void setNewValue(String newValue) {
+		this.newValue = newValue;
+	}
+	
+	/**
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		
+		if (!(obj instanceof PropertyChange))
+			return false;
+		
+		PropertyChange other = (PropertyChange) obj;
+		return ObjectUtils.equals(className, other.className) && ObjectUtils.equals(propertyName, other.propertyName)
+		        && ObjectUtils.equals(previousValue, other.previousValue) && ObjectUtils.equals(newValue, other.newValue);
+	}
+	
+	/**
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		int hash = ObjectUtils.hashCode(className);
+		hash = 31 * hash + ObjectUtils.hashCode(propertyName);
+		hash = 31 * hash + ObjectUtils.hashCode(previousValue);
+		return 31 * hash + ObjectUtils.hashCode(newValue);
+	}
+}
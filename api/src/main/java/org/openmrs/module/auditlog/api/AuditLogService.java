@@ -13,14 +13,19 @@
  */
 package org.openmrs.module.auditlog.api;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import org.openmrs.Concept;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.User;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.auditlog.AuditLog;
 import org.openmrs.module.auditlog.AuditLog.Action;
+import org.openmrs.module.auditlog.AuditLogSummary;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Contains service methods related to {@link AuditLog}s
@@ -54,6 +59,156 @@ public interface AuditLogService extends OpenmrsService {
 	public List<AuditLog> getAuditLogs(List<Class<? extends OpenmrsObject>> clazzes, List<Action> actions, Date startDate,
 	                                   Date endDate, Integer start, Integer length);
 	
+	/**
+	 * Fetches the audit log entries matching the specified arguments
+	 * 
+	 * @param clazzes the class type to match against e.g for objects of type {@link Concept}
+	 * @param actions the list of {@link Action}s to match against
+	 * @param users the users that triggered the changes to match against
+	 * @param startDate the creation date of the log entries to return should be after or equal to
+	 *            this date
+	 * @param endDate the creation date of the log entries to return should be before or equal to
+	 *            this date
+	 * @param start index to start with (defaults to 0 if <code>null<code>)
+	 * @param length number of results to return (default to return all matching results if
+	 *            <code>null<code>)
+	 * @return a list of matching {@link AuditLog}s
+	 * @should match on the specified users
+	 */
+	public List<AuditLog> getAuditLogs(List<Class<? extends OpenmrsObject>> clazzes, List<Action> actions,
+	                                   List<User> users, Date startDate, Date endDate, Integer start, Integer length);
+	
+	/**
+	 * Gets the number of audit log entries matching the specified arguments
+	 * 
+	 * @param clazzes the class type to match against e.g for objects of type {@link Concept}
+	 * @param actions the list of {@link Action}s to match against
+	 * @param users the users that triggered the changes to match against
+	 * @param startDate the creation date of the log entries to count should be after or equal to
+	 *            this date
+	 * @param endDate the creation date of the log entries to count should be before or equal to this
+	 *            date
+	 * @return the number of matching {@link AuditLog}s
+	 * @should return the number of matching audit logs
+	 */
+	public int getAuditLogCount(List<Class<? extends OpenmrsObject>> clazzes, List<Action> actions, List<User> users,
+	                            Date startDate, Date endDate);
+	
+	/**
+	 * Fetches the page of audit log entries matching the specified arguments that follows the
+	 * specified last seen entry, entries are sorted by date of creation starting with the latest and
+	 * then by id. Unlike {@link #getAuditLogs(List, List, Date, Date, Integer, Integer)} the page
+	 * is found by seeking past the last seen entry so fetching a page deep in a large table is as
+	 * fast as fetching the first one
+	 * 
+	 * @param clazzes the class type to match against e.g for objects of type {@link Concept}
+	 * @param actions the list of {@link Action}s to match against
+	 * @param users the users that triggered the changes to match against
+	 * @param startDate the creation date of the log entries to return should be after or equal to
+	 *            this date
+	 * @param endDate the creation date of the log entries to return should be before or equal to
+	 *            this date
+	 * @param lastDateCreated the dateCreated of the last entry of the previous page, null to get the
+	 *            first page
+	 * @param lastAuditLogId the auditLogId of the last entry of the previous page, null to get the
+	 *            first page
+	 * @param length number of results to return
+	 * @return a list of matching {@link AuditLog}s
+	 * @should return the first page if no last seen entry is specified
+	 * @should return the entries that follow the last seen entry
+	 * @should return entries created at the same time as the last seen entry with a lower id
+	 */
+	public List<AuditLog> getAuditLogsAfter(List<Class<? extends OpenmrsObject>> clazzes, List<Action> actions,
+	                                        List<User> users, Date startDate, Date endDate, Date lastDateCreated,
+	                                        Integer lastAuditLogId, int length);
+	
+	/**
+	 * Fetches summaries of the audit log entries matching the specified arguments sorted like
+	 * {@link #getAuditLogsAfter(List, List, List, Date, Date, Date, Integer, int)}, they are read with
+	 * a projection so that listing audit logs neither reads their changes nor loads the users that
+	 * triggered them. The page is found by seeking past the specified last seen entry if any, or by
+	 * skipping the specified number of entries otherwise
+	 * 
+	 * @param clazzes the class type to match against e.g for objects of type {@link Concept}
+	 * @param actions the list of {@link Action}s to match against
+	 * @param users the users that triggered the changes to match against
+	 * @param startDate the creation date of the log entries to return should be after or equal to
+	 *            this date
+	 * @param endDate the creation date of the log entries to return should be before or equal to
+	 *            this date
+	 * @param lastDateCreated the dateCreated of the last entry of the previous page, can be null
+	 * @param lastAuditLogId the auditLogId of the last entry of the previous page, can be null
+	 * @param start index to start with if no last seen entry is specified (defaults to 0 if
+	 *            <code>null<code>)
+	 * @param length number of results to return (default to return all matching results if
+	 *            <code>null<code>)
+	 * @return a list of {@link AuditLogSummary}s
+	 * @should return summaries of the matching audit logs
+	 * @should include the number of changed properties
+	 * @should return the summaries that follow the last seen entry
+	 */
+	public List<AuditLogSummary> getAuditLogSummaries(List<Class<? extends OpenmrsObject>> clazzes, List<Action> actions,
+	                                                  List<User> users, Date startDate, Date endDate,
+	                                                  Date lastDateCreated, Integer lastAuditLogId, Integer start,
+	                                                  Integer length);
+	
+	/**
+	 * Fetches a page of the history of the object of the specified type with the specified uuid, it
+	 * is made of the audit logs of the object and those of the objects in its one to many
+	 * collections e.g the names of a concept or the names and attributes of a person. Entries are
+	 * sorted like {@link #getAuditLogsAfter(List, List, List, Date, Date, Date, Integer, int)} and
+	 * the page is found by seeking past the specified last seen entry. Objects are matched by uuid
+	 * and by the specified type, its subclasses and superclasses so the logs of a patient include
+	 * those of its person, the objects in the collections are those currently in them.
+	 * 
+	 * @param clazz the type of the object
+	 * @param uuid the uuid of the object
+	 * @param lastAuditLog the last entry of the previous page, null to get the first page
+	 * @param length number of results to return
+	 * @return a list of {@link AuditLog}s
+	 * @should return the logs of the specified object
+	 * @should return the logs that follow the specified last audit log
+	 * @should include the logs of the objects in the collections of the specified object
+	 * @should not return the logs of objects of other types with the same uuid
+	 */
+	public List<AuditLog> getAuditLogsForObject(Class<? extends OpenmrsObject> clazz, String uuid,
+	                                            AuditLog lastAuditLog, int length);
+	
+	/**
+	 * Gets the full names of the persons of the users with the specified ids, the names are looked up
+	 * in a single query so that displaying the users of a page of audit logs costs a constant number
+	 * of queries
+	 * 
+	 * @param userIds the ids of the users
+	 * @return a map of the user ids to the full names, users without a name are left out
+	 * @should get the full names of the specified users
+	 * @should leave out users that don't exist
+	 */
+	public Map<Integer, String> getUserFullNames(Collection<Integer> userIds);
+	
+	/**
+	 * Fetches the audit logs of the changes to the specified property of objects of the specified
+	 * types, the logs are matched by their stored property changes so their changes don't have to be
+	 * read
+	 * 
+	 * @param clazzes the class types that own the property to match against, subclasses are
+	 *            included, if null or empty the logs of all types with a property with the specified
+	 *            name are returned
+	 * @param propertyName the name of the changed property
+	 * @param startDate the creation date of the log entries to return should be after or equal to
+	 *            this date
+	 * @param endDate the creation date of the log entries to return should be before or equal to
+	 *            this date
+	 * @param start index to start with (defaults to 0 if <code>null<code>)
+	 * @param length number of results to return (default to return all matching results if
+	 *            <code>null<code>)
+	 * @return a list of matching {@link AuditLog}s
+	 * @should return the logs of changes to the specified property
+	 * @should match on the specified classes
+	 */
+	public List<AuditLog> getAuditLogsByProperty(List<Class<? extends OpenmrsObject>> clazzes, String propertyName,
+	                                             Date startDate, Date endDate, Integer start, Integer length);
+	
 	/**
 	 * Fetches a saved object with the specified objectId
 	 * 
@@ -71,4 +226,61 @@ public interface AuditLogService extends OpenmrsService {
 	 * @should get the saved object matching the specified arguments
 	 */
 	public <T> T getObjectByUuid(Class<T> clazz, String uuid);
+	
+	/**
+	 * Fetches the saved objects of the specified type with the specified uuids or ids in a single
+	 * query
+	 * 
+	 * @param clazz the type of the objects
+	 * @param uuids the uuids to match against, can be null
+	 * @param ids the ids to match against, can be null
+	 * @return the matching saved objects
+	 * @should get the saved objects matching the specified uuids and ids
+	 */
+	public <T> List<T> getObjectsByUuidOrId(Class<T> clazz, Collection<String> uuids, Collection<Integer> ids);
+	
+	/**
+	 * Converts the changes of the audit logs stored in the xml format used by earlier versions of
+	 * the module to the compact format, at most the specified number of audit logs are converted so
+	 * that large tables can be converted in several transactions
+	 * 
+	 * @param afterAuditLogId the auditLogId of the last audit log converted by the previous batch so
+	 *            that the batch starts after it, can be null
+	 * @param batchSize the maximum number of audit logs to convert
+	 * @return the auditLogId of the last converted audit log or null if there was none to convert
+	 * @should convert the changes of audit logs stored as xml to the compact format
+	 * @should only convert audit logs after the specified auditLogId
+	 */
+	@Transactional
+	public Integer convertChangesXml(Integer afterAuditLogId, int batchSize);
+	
+	/**
+	 * Stores the number and the names of the changed properties of audit logs created by earlier
+	 * versions of the module, at most the specified number of audit logs are updated so that large
+	 * tables can be updated in several transactions
+	 * 
+	 * @param afterAuditLogId the auditLogId of the last audit log updated by the previous batch so
+	 *            that the batch starts after it, can be null
+	 * @param batchSize the maximum number of audit logs to update
+	 * @return the auditLogId of the last updated audit log or null if there was none to update
+	 * @should store the change count and changed properties of audit logs without them
+	 * @should only update audit logs after the specified auditLogId
+	 */
+	@Transactional
+	public Integer backfillChangeCounts(Integer afterAuditLogId, int batchSize);
+	
+	/**
+	 * Stores the property changes of audit logs created by earlier versions of the module so that
+	 * they can be found by the changed property, at most the specified number of audit logs are
+	 * updated so that large tables can be updated in several transactions
+	 * 
+	 * @param afterAuditLogId the auditLogId of the last audit log updated by the previous batch so
+	 *            that the batch starts after it, can be null
+	 * @param batchSize the maximum number of audit logs to update
+	 * @return the auditLogId of the last updated audit log or null if there was none to update
+	 * @should store the property changes of audit logs without them
+	 * @should only update audit logs after the specified auditLogId
+	 */
+	@Transactional
+	public Integer backfillPropertyChanges(Integer afterAuditLogId, int batchSize);
 }
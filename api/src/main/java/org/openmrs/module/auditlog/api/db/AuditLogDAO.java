@@ -14,11 +14,18 @@
 
 package org.openmrs.module.auditlog.api.db;
 
+import java.io.Serializable;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
+import org.openmrs.OpenmrsObject;
+import org.openmrs.PersonName;
+import org.openmrs.User;
 import org.openmrs.module.auditlog.AuditLog;
 import org.openmrs.module.auditlog.AuditLog.Action;
+import org.openmrs.module.auditlog.AuditLogSummary;
 import org.openmrs.module.auditlog.api.AuditLogService;
 
 /**
@@ -27,10 +34,124 @@ import org.openmrs.module.auditlog.api.AuditLogService;
 public interface AuditLogDAO {
 	
 	/**
-	 * @see AuditLogService#getAuditLogs(List, List, Date, Date, Integer, Integer)
+	 * @see AuditLogService#getAuditLogs(List, List, List, Date, Date, Integer, Integer)
 	 */
-	public List<AuditLog> getAuditLogs(List<String> classnames, List<Action> actions, Date startDate, Date endDate,
-	                                   Integer start, Integer length);
+	public List<AuditLog> getAuditLogs(List<String> classnames, List<Action> actions, List<User> users, Date startDate,
+	                                   Date endDate, Integer start, Integer length);
+	
+	/**
+	 * @see AuditLogService#getAuditLogCount(List, List, List, Date, Date)
+	 */
+	public int getAuditLogCount(List<String> classnames, List<Action> actions, List<User> users, Date startDate,
+	                            Date endDate);
+	
+	/**
+	 * Fetches the page of audit logs matching the specified arguments that follows the log with the
+	 * specified date created and id in the sort order of {@link #getAuditLogs}, the page is found by
+	 * seeking in the index instead of skipping the logs of the previous pages
+	 * 
+	 * @param classnames the class names to match against
+	 * @param actions the actions to match against
+	 * @param users the users that triggered the changes to match against
+	 * @param startDate the creation date of the logs to return should be after or equal to this date
+	 * @param endDate the creation date of the logs to return should be before or equal to this date
+	 * @param lastDateCreated the date created of the last log of the previous page, null for the
+	 *            first page
+	 * @param lastAuditLogId the id of the last log of the previous page, null for the first page
+	 * @param length number of results to return
+	 * @return a list of audit logs
+	 */
+	public List<AuditLog> getAuditLogsAfter(List<String> classnames, List<Action> actions, List<User> users,
+	                                        Date startDate, Date endDate, Date lastDateCreated, Integer lastAuditLogId,
+	                                        int length);
+	
+	/**
+	 * @see AuditLogService#getAuditLogSummaries(List, List, List, Date, Date, Date, Integer, Integer,
+	 *      Integer)
+	 */
+	public List<AuditLogSummary> getAuditLogSummaries(List<String> classnames, List<Action> actions, List<User> users,
+	                                                  Date startDate, Date endDate, Date lastDateCreated,
+	                                                  Integer lastAuditLogId, Integer start, Integer length);
+	
+	/**
+	 * Looks up the names of the persons of the users with the specified ids in a single query, the
+	 * preferred name of a person is returned if it has one
+	 * 
+	 * @param userIds the ids of the users
+	 * @return a map of the ids of the users to the names of their persons
+	 */
+	public Map<Integer, PersonName> getPersonNames(Collection<Integer> userIds);
+	
+	/**
+	 * Fetches the page of the audit logs of the objects with the specified uuids that follows the log
+	 * with the specified date created and id in the sort order of {@link #getAuditLogs}, the uuids
+	 * are looked up in chunks so that any number of them can be passed
+	 * 
+	 * @param classnames the class names of the objects
+	 * @param objectUuids the uuids of the objects
+	 * @param lastDateCreated the date created of the last log of the previous page, null for the
+	 *            first page
+	 * @param lastAuditLogId the id of the last log of the previous page, null for the first page
+	 * @param length number of results to return
+	 * @return a list of audit logs
+	 */
+	public List<AuditLog> getAuditLogsForObjects(List<String> classnames, Collection<String> objectUuids,
+	                                             Date lastDateCreated, Integer lastAuditLogId, int length);
+	
+	/**
+	 * Looks up the uuids of the monitored objects in the one to many collections of the object of the
+	 * specified type with the specified uuid, with one query per collection
+	 * 
+	 * @param clazz the type of the object
+	 * @param uuid the uuid of the object
+	 * @return a map of the mapped element classes of the collections to the uuids of their objects
+	 */
+	public Map<Class<? extends OpenmrsObject>, List<String>> getChildUuids(Class<?> clazz, String uuid);
+	
+	/**
+	 * Fetches the audit logs of the changes to the specified property, they are matched with the
+	 * stored property changes and not by reading the changes of each log
+	 * 
+	 * @param classnames the class names of the objects that own the property to match against
+	 * @param propertyName the name of the changed property
+	 * @param startDate the creation date of the logs to return should be after or equal to this date
+	 * @param endDate the creation date of the logs to return should be before or equal to this date
+	 * @param start index to start with
+	 * @param length number of results to return
+	 * @return a list of audit logs
+	 */
+	public List<AuditLog> getAuditLogsByProperty(List<String> classnames, String propertyName, Date startDate,
+	                                             Date endDate, Integer start, Integer length);
+	
+	/**
+	 * Fetches audit logs whose changes are stored in the xml format used by earlier versions of the
+	 * module, ordered by auditLogId
+	 * 
+	 * @param afterAuditLogId only audit logs with a greater auditLogId are returned, can be null
+	 * @param maxResults the maximum number of audit logs to return
+	 * @return a list of audit logs
+	 */
+	public List<AuditLog> getAuditLogsWithChangesXml(Integer afterAuditLogId, int maxResults);
+	
+	/**
+	 * Fetches audit logs created by earlier versions of the module that have no stored change count,
+	 * ordered by auditLogId
+	 * 
+	 * @param afterAuditLogId only audit logs with a greater auditLogId are returned, can be null
+	 * @param maxResults the maximum number of audit logs to return
+	 * @return a list of audit logs
+	 */
+	public List<AuditLog> getAuditLogsWithoutChangeCount(Integer afterAuditLogId, int maxResults);
+	
+	/**
+	 * Fetches audit logs created by earlier versions of the module that have changes but no stored
+	 * property changes, ordered by auditLogId
+	 * 
+	 * @param afterAuditLogId only audit logs with a greater auditLogId are returned, can be null
+	 * @param maxResults the maximum number of audit logs to return
+	 * @return a list of audit logs
+	 */
+	public List<AuditLog> getAuditLogsWithoutPropertyChanges(Integer afterAuditLogId, int maxResults);
 	
 	/**
 	 * Saves the specified object to the database
@@ -40,6 +161,14 @@ public interface AuditLogDAO {
 	 */
 	public <T> T save(T object);
 	
+	/**
+	 * Inserts the specified audit logs in a single JDBC batch, the audit logs are not associated to
+	 * the current session and their auditLogIds are not set.
+	 * 
+	 * @param auditLogs the audit logs to insert
+	 */
+	public void saveAll(Collection<AuditLog> auditLogs);
+	
 	/**
 	 * @see AuditLogService
 	 */
@@ -54,4 +183,19 @@ public interface AuditLogDAO {
 	 * @see AuditLogService#getObjectByUuid(Class, String)
 	 */
 	public <T> T getObjectByUuid(Class<T> clazz, String uuid);
+	
+	/**
+	 * @see AuditLogService#getObjectsByUuidOrId(Class, Collection, Collection)
+	 */
+	public <T> List<T> getObjectsByUuidOrId(Class<T> clazz, Collection<String> uuids, Collection<Integer> ids);
+	
+	/**
+	 * Looks up the uuids of the objects of the specified type with the specified identifiers in a
+	 * single query
+	 * 
+	 * @param clazz the persistent class of the objects
+	 * @param ids the identifiers of the objects
+	 * @return a map of the identifiers of the found objects to their uuids
+	 */
+	public Map<Serializable, String> getUuids(Class<?> clazz, Collection<Serializable> ids);
 }
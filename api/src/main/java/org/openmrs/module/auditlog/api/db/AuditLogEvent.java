@@ -0,0 +1,129 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.api.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openmrs.module.auditlog.AuditLog;
+import org.openmrs.module.auditlog.AuditLog.Action;
+
+/**
+ * An immutable snapshot of an insert, update or delete of a monitored object, it holds everything
+ * needed to create an {@link AuditLog} so that the log can be written after the transaction that
+ * produced it has completed, possibly by another thread
+ */
+public final class AuditLogEvent {
+	
+	private final String className;
+	
+	private final String objectUuid;
+	
+	private final Action action;
+	
+	//the id of the user that triggered the operation, null for daemon or unauthenticated operations
+	private final Integer userId;
+	
+	private final long dateCreated;
+	
+	//Mapping between changed property names and their previous(index 0) and new(index 1) values
+	private final Map<String, Object[]> changes;
+	
+	/**
+	 * @param className the fully qualified classname of the object type
+	 * @param objectUuid the uuid of the object
+	 * @param action the operation performed on the object
+	 * @param userId the id of the user that triggered the operation
+	 * @param dateCreated the date when the operation was done
+	 * @param changes the changed properties mapped to their previous and new values, can be null
+	 */
+	public AuditLogEvent(String className, String objectUuid, Action action, Integer userId, Date dateCreated,
+	    Map<String, Object[]> changes) {
+		this.className = className;
+		this.objectUuid = objectUuid;
+		this.action = action;
+		this.userId = userId;
+		this.dateCreated = dateCreated.getTime();
+		if (changes != null) {
+			//The value arrays and the element lists are copied too so that later changes to the ones
+			//passed in by the interceptor can't affect the event
+			Map<String, Object[]> copy = new LinkedHashMap<String, Object[]>(changes.size());
+			for (Map.Entry<String, Object[]> entry : changes.entrySet()) {
+				Object[] values = entry.getValue().clone();
+				for (int i = 0; i < values.length; i++) {
+					values[i] = copyValue(values[i]);
+				}
+				copy.put(entry.getKey(), values);
+			}
+			this.changes = Collections.unmodifiableMap(copy);
+		} else {
+			this.changes = null;
+		}
+	}
+	
+	private static Object copyValue(Object value) {
+		if (value instanceof Collection)
+			return Collections.unmodifiableList(new ArrayList<Object>((Collection<?>) value));
+		
+		return value;
+	}
+	
+	/**
+	 * @return the className
+	 */
+	public String getClassName() {
+		return className;
+	}
+	
+	/**
+	 * @return the objectUuid
+	 */
+	public String getObjectUuid() {
+		return objectUuid;
+	}
+	
+	/**
+	 * @return the action
+	 */
+	public Action getAction() {
+		return action;
+	}
+	
+	/**
+	 * @return the userId
+	 */
+	public Integer getUserId() {
+		return userId;
+	}
+	
+	/**
+	 * @return the dateCreated
+	 */
+	public Date getDateCreated() {
+		return new Date(dateCreated);
+	}
+	
+	/**
+	 * Note that the value arrays are shared, callers must not modify them
+	 * 
+	 * @return the changes
+	 */
+	public Map<String, Object[]> getChanges() {
+		return changes;
+	}
+}
@@ -0,0 +1,411 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.api.db;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.auditlog.AuditLog;
+import org.openmrs.module.auditlog.PropertyChange;
+import org.openmrs.module.auditlog.util.AuditLogConstants;
+import org.openmrs.module.auditlog.util.AuditLogUtil;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Converts {@link AuditLogEvent}s to {@link AuditLog}s and saves them to the database, by default
+ * this happens on the calling thread but when started, events can be handed over to a bounded queue
+ * that is drained by background writer threads so that the thread committing the transaction that
+ * produced the events doesn't have to wait for them to be written.
+ */
+public class AuditLogWriter {
+	
+	private static final Log log = LogFactory.getLog(AuditLogWriter.class);
+	
+	//The maximum number of events a writer thread takes from the queue to write at once
+	private static final int MAX_BATCH_SIZE = 100;
+	
+	private static final long POLL_TIMEOUT_MILLIS = 500;
+	
+	//How long to wait for each writer thread to drain the queue when shutting down
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = 30000;
+	
+	//How many times a batch is written before its events are written one by one
+	private static final int MAX_BATCH_WRITE_ATTEMPTS = 2;
+	
+	private AuditLogDAO dao;
+	
+	private TransactionTemplate transactionTemplate;
+	
+	private volatile BlockingQueue<AuditLogEvent> queue;
+	
+	private final List<Thread> writerThreads = new ArrayList<Thread>();
+	
+	/**
+	 * @param dao the dao to set
+	 */
+	public void setDao(AuditLogDAO dao) {
+		this.dao = dao;
+	}
+	
+	/**
+	 * @param transactionManager the transaction manager to write the events with when they are not
+	 *            written in the transaction that produced them
+	 */
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+	
+	/**
+	 * Starts the background writer threads, after this call events passed to
+	 * {@link #enqueue(List)} are written asynchronously
+	 *
+	 * @param queueSize the maximum number of events that can be waiting to be written
+	 * @param writerCount the number of writer threads to start
+	 */
+	public synchronized void start(int queueSize, int writerCount) {
+		if (queue != null) {
+			log.warn("The audit log writer threads are already running");
+			return;
+		}
+		
+		final BlockingQueue<AuditLogEvent> newQueue = new ArrayBlockingQueue<AuditLogEvent>(queueSize);
+		for (int i = 0; i < writerCount; i++) {
+			Thread writerThread = new Thread(new Runnable() {
+				
+				@Override
+				public void run() {
+					writeInBackground(newQueue);
+				}
+			}, "AuditLogWriter-" + (i + 1));
+			writerThread.setDaemon(true);
+			writerThreads.add(writerThread);
+		}
+		
+		queue = newQueue;
+		for (Thread writerThread : writerThreads) {
+			writerThread.start();
+		}
+		
+		if (log.isInfoEnabled())
+			log.info("Started " + writerCount + " audit log writer thread(s) with a queue size of " + queueSize);
+	}
+	
+	/**
+	 * Stops accepting new events, waits for the writer threads to drain the queue and writes any
+	 * events that are still pending on the calling thread, writer threads that don't finish in time
+	 * are interrupted and joined first so that they are no longer taking events off the queue
+	 */
+	public synchronized void shutdown() {
+		BlockingQueue<AuditLogEvent> currentQueue = queue;
+		if (currentQueue == null)
+			return;
+		
+		//the writer threads exit once they find the queue detached and empty
+		queue = null;
+		boolean interrupted = false;
+		for (Thread writerThread : writerThreads) {
+			try {
+				if (!interrupted)
+					writerThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+			
+			if (writerThread.isAlive()) {
+				log.warn(writerThread.getName() + " didn't finish writing in time, interrupting it");
+				//an interrupted writer thread finishes the batch it is writing and then exits
+				writerThread.interrupt();
+				try {
+					writerThread.join();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		writerThreads.clear();
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		
+		List<AuditLogEvent> pending = new ArrayList<AuditLogEvent>();
+		currentQueue.drainTo(pending);
+		if (!pending.isEmpty()) {
+			if (log.isInfoEnabled())
+				log.info("Writing " + pending.size() + " pending audit log(s) before shutting down");
+			writeInNewSession(pending);
+		}
+	}
+	
+	/**
+	 * @return true if the background writer threads are running otherwise false
+	 */
+	public boolean isAsync() {
+		return queue != null;
+	}
+	
+	/**
+	 * Hands the specified events over to the background writer threads without blocking
+	 *
+	 * @param events the events to queue
+	 * @return the events that were not queued either because the writer threads are not running or
+	 *         the queue is full, the caller is expected to write them with {@link #write(List)}
+	 */
+	public List<AuditLogEvent> enqueue(List<AuditLogEvent> events) {
+		BlockingQueue<AuditLogEvent> currentQueue = queue;
+		if (currentQueue == null)
+			return events;
+		
+		List<AuditLogEvent> rejected = null;
+		for (AuditLogEvent event : events) {
+			if (!currentQueue.offer(event)) {
+				if (rejected == null)
+					rejected = new ArrayList<AuditLogEvent>();
+				rejected.add(event);
+			}
+		}
+		
+		if (rejected == null)
+			return new ArrayList<AuditLogEvent>(0);
+		
+		log.warn("The audit log writer queue is full, " + rejected.size() + " audit log(s) will be written synchronously");
+		return rejected;
+	}
+	
+	/**
+	 * Creates audit logs for the specified events and inserts them along with their property changes
+	 * in a single batch in the current transaction
+	 *
+	 * @param events the events to write
+	 */
+	public void write(List<AuditLogEvent> events) {
+		Map<EntityReference, String> uuids = resolveReferences(events);
+		List<AuditLog> auditLogs = new ArrayList<AuditLog>(events.size());
+		for (AuditLogEvent event : events) {
+			auditLogs.add(toAuditLog(event, uuids));
+		}
+		
+		dao.saveAll(auditLogs);
+	}
+	
+	/**
+	 * Looks up the uuids of the objects referenced in the changes of the specified events, with one
+	 * query per referenced type
+	 *
+	 * @param events the events to inspect
+	 * @return a map of the references to the uuids of the objects
+	 */
+	private Map<EntityReference, String> resolveReferences(List<AuditLogEvent> events) {
+		Map<Class<?>, Set<Serializable>> typeIdsMap = null;
+		for (AuditLogEvent event : events) {
+			if (event.getChanges() == null)
+				continue;
+			
+			for (Object[] values : event.getChanges().values()) {
+				for (Object value : values) {
+					//The values of collection properties are lists of the added or removed elements
+					Collection<?> elements = (value instanceof Collection) ? (Collection<?>) value : Collections
+					        .singleton(value);
+					for (Object element : elements) {
+						if (element instanceof EntityReference) {
+							EntityReference reference = (EntityReference) element;
+							if (typeIdsMap == null)
+								typeIdsMap = new HashMap<Class<?>, Set<Serializable>>();
+							Set<Serializable> ids = typeIdsMap.get(reference.getEntityClass());
+							if (ids == null) {
+								ids = new HashSet<Serializable>();
+								typeIdsMap.put(reference.getEntityClass(), ids);
+							}
+							ids.add(reference.getId());
+						}
+					}
+				}
+			}
+		}
+		
+		if (typeIdsMap == null)
+			return Collections.emptyMap();
+		
+		Map<EntityReference, String> uuids = new HashMap<EntityReference, String>();
+		for (Map.Entry<Class<?>, Set<Serializable>> entry : typeIdsMap.entrySet()) {
+			for (Map.Entry<Serializable, String> idUuid : dao.getUuids(entry.getKey(), entry.getValue()).entrySet()) {
+				uuids.put(new EntityReference(entry.getKey(), idUuid.getKey()), idUuid.getValue());
+			}
+		}
+		
+		return uuids;
+	}
+	
+	/**
+	 * Creates an {@link AuditLog} from the specified event
+	 *
+	 * @param event the event to convert
+	 * @param uuids the uuids of the objects referenced in the changes of the event
+	 * @return the created audit log
+	 */
+	private AuditLog toAuditLog(AuditLogEvent event, Map<EntityReference, String> uuids) {
+		//we only need a reference to the user to set the foreign key
+		User user = (event.getUserId() != null) ? new User(event.getUserId()) : null;
+		AuditLog auditLog = new AuditLog(event.getClassName(), event.getObjectUuid(), event.getAction(), user,
+		        event.getDateCreated());
+		auditLog.setUuid(UUID.randomUUID().toString());
+		if (event.getChanges() != null) {
+			Map<String, Object[]> changes = new LinkedHashMap<String, Object[]>(event.getChanges());
+			for (Map.Entry<String, Object[]> entry : changes.entrySet()) {
+				Object previousValue = toStoredValue(entry.getValue()[0], uuids);
+				Object newValue = toStoredValue(entry.getValue()[1], uuids);
+				entry.setValue(new Object[] { previousValue, newValue });
+				if (previousValue != null || newValue != null) {
+					auditLog.getPropertyChanges().add(
+					    new PropertyChange(event.getClassName(), entry.getKey(), ObjectUtils.toString(previousValue, null),
+					            ObjectUtils.toString(newValue, null)));
+				}
+			}
+			auditLog.setChangesXml(AuditLogUtil.encodeChanges(changes));
+			//All the changes are counted even those without a property change to match the stored changes
+			auditLog.setChangedProperties(changes.keySet());
+		} else {
+			auditLog.setChangedProperties(Collections.<String> emptyList());
+		}
+		
+		return auditLog;
+	}
+	
+	/**
+	 * Converts a captured value to the one to store, references are replaced with the uuids of the
+	 * objects and the element lists of collection properties are joined with
+	 * {@link AuditLogUtil#joinCollectionElements(Collection)}
+	 * 
+	 * @param value the value to convert
+	 * @param uuids the uuids of the referenced objects
+	 * @return the value to store
+	 */
+	private Object toStoredValue(Object value, Map<EntityReference, String> uuids) {
+		if (value instanceof Collection) {
+			List<Object> elements = new ArrayList<Object>(((Collection<?>) value).size());
+			for (Object element : (Collection<?>) value) {
+				elements.add(toStoredValue(element, uuids));
+			}
+			
+			return AuditLogUtil.joinCollectionElements(elements);
+		}
+		
+		if (value instanceof EntityReference) {
+			String uuid = uuids.get(value);
+			if (uuid != null)
+				return AuditLogConstants.UUID_LABEL + uuid;
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Writes the specified events in a session of their own, this is what the writer threads call. A
+	 * batch that fails to be written is retried and if it still fails, its events are written one by
+	 * one so that only the events that can't be written at all are lost.
+	 *
+	 * @param events the events to write
+	 */
+	private void writeInNewSession(List<AuditLogEvent> events) {
+		for (int attempt = 1; attempt <= MAX_BATCH_WRITE_ATTEMPTS; attempt++) {
+			if (writeInTransaction(events))
+				return;
+		}
+		
+		if (events.size() > 1) {
+			for (AuditLogEvent event : events) {
+				writeInTransaction(Collections.singletonList(event));
+			}
+		}
+	}
+	
+	/**
+	 * Writes the specified events in a new session and transaction, no user context or proxy
+	 * privileges are needed since the audit logs are written through the dao which doesn't check
+	 * privileges and they carry the id of the user captured in the event instead of the
+	 * authenticated one
+	 *
+	 * @param events the events to write
+	 * @return true if the events were written otherwise false
+	 */
+	private boolean writeInTransaction(final List<AuditLogEvent> events) {
+		Context.openSession();
+		try {
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					write(events);
+				}
+			});
+			
+			return true;
+		}
+		catch (RuntimeException e) {
+			log.error("An error occured while writing " + events.size() + " audit log(s):", e);
+			return false;
+		}
+		finally {
+			Context.closeSession();
+		}
+	}
+	
+	/**
+	 * Keeps taking events off the specified queue in batches and writing them until the writer is
+	 * shut down and the queue is empty
+	 *
+	 * @param source the queue to drain
+	 */
+	private void writeInBackground(BlockingQueue<AuditLogEvent> source) {
+		List<AuditLogEvent> batch = new ArrayList<AuditLogEvent>(MAX_BATCH_SIZE);
+		while (queue == source || !source.isEmpty()) {
+			try {
+				AuditLogEvent event = source.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				if (event == null)
+					continue;
+				
+				batch.add(event);
+				source.drainTo(batch, MAX_BATCH_SIZE - 1);
+				writeInNewSession(batch);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			finally {
+				batch.clear();
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.api.db;
+
+import java.io.Serializable;
+
+import org.openmrs.module.auditlog.util.AuditLogConstants;
+
+/**
+ * An immutable reference to a persistent object by its class and identifier, it is stored in place
+ * of the uuid of an associated object that was not loaded when the change was captured so that its
+ * uuid can be looked up along with those of other referenced objects when the audit log is written
+ */
+public final class EntityReference {
+	
+	private final Class<?> entityClass;
+	
+	private final Serializable id;
+	
+	/**
+	 * @param entityClass the persistent class of the referenced object
+	 * @param id the identifier of the referenced object
+	 */
+	public EntityReference(Class<?> entityClass, Serializable id) {
+		this.entityClass = entityClass;
+		this.id = id;
+	}
+	
+	/**
+	 * @return the entityClass
+	 */
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+	
+	/**
+	 * @return the id
+	 */
+	public Serializable getId() {
+		return id;
+	}
+	
+	/**
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof EntityReference))
+			return false;
+		
+		EntityReference other = (EntityReference) obj;
+		return entityClass.equals(other.entityClass) && id.equals(other.id);
+	}
+	
+	/**
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return 31 * entityClass.hashCode() + id.hashCode();
+	}
+	
+	/**
+	 * Returns the value to store if the uuid of the referenced object can't be looked up
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return AuditLogConstants.ID_LABEL + id;
+	}
+}
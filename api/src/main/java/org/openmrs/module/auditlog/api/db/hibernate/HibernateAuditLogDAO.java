@@ -13,23 +13,82 @@
  */
 package org.openmrs.module.auditlog.api.db.hibernate;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.hibernate.Criteria;
+import org.hibernate.Query;
 import org.hibernate.SessionFactory;
+import org.hibernate.criterion.CriteriaSpecification;
+import org.hibernate.criterion.Disjunction;
+import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.transform.Transformers;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.Type;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.PersonName;
+import org.openmrs.User;
+import org.openmrs.api.db.DAOException;
 import org.openmrs.module.auditlog.AuditLog;
 import org.openmrs.module.auditlog.AuditLog.Action;
+import org.openmrs.module.auditlog.AuditLogSummary;
+import org.openmrs.module.auditlog.PropertyChange;
 import org.openmrs.module.auditlog.api.db.AuditLogDAO;
+import org.openmrs.module.auditlog.util.AuditLogUtil;
 import org.springframework.transaction.annotation.Transactional;
 
 public class HibernateAuditLogDAO implements AuditLogDAO {
 	
 	//private static final Log log = LogFactory.getLog(HibernateAuditLogDAO.class);
 	
+	//The audit_log_id is left out so that it gets assigned by the database
+	private static final String INSERT_AUDIT_LOG_SQL = "INSERT INTO auditlog_audit_log "
+	        + "(class_name, object_uuid, action, user, changes_xml, change_count, changed_properties, date_created, uuid) "
+	        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	
+	private static final String INSERT_PROPERTY_CHANGE_SQL = "INSERT INTO auditlog_property_change "
+	        + "(audit_log_id, class_name, property_name, previous_value, new_value) VALUES (?, ?, ?, ?, ?)";
+	
+	//Used for drivers that don't return the generated keys of a batch insert
+	private static final String SELECT_AUDIT_LOG_IDS_SQL = "SELECT uuid, audit_log_id FROM auditlog_audit_log WHERE uuid IN ";
+	
+	//The maximum number of values to pass to a single IN clause
+	private static final int MAX_IN_CLAUSE_SIZE = 1000;
+	
+	//The sort order of addOrders(Criteria)
+	private static final Comparator<AuditLog> LATEST_FIRST = new Comparator<AuditLog>() {
+		
+		@Override
+		public int compare(AuditLog log1, AuditLog log2) {
+			int result = log2.getDateCreated().compareTo(log1.getDateCreated());
+			if (result == 0)
+				result = log2.getAuditLogId().compareTo(log1.getAuditLogId());
+			
+			return result;
+		}
+	};
+	
 	private SessionFactory sessionFactory;
 	
 	/**
@@ -40,14 +99,103 @@ public class HibernateAuditLogDAO implements AuditLogDAO {
 	}
 	
 	/**
-	 * @see org.openmrs.module.auditlog.db.AuditLogDAO#getAuditLogs(List, List, java.util.Date,
+	 * @see org.openmrs.module.auditlog.db.AuditLogDAO#getAuditLogs(List, List, List, java.util.Date,
 	 *      java.util.Date, java.lang.Integer, java.lang.Integer)
 	 */
 	@SuppressWarnings("unchecked")
 	@Override
 	@Transactional(readOnly = true)
-	public List<AuditLog> getAuditLogs(List<String> classnames, List<Action> actions, Date startDate, Date endDate,
-	                                   Integer start, Integer length) {
+	public List<AuditLog> getAuditLogs(List<String> classnames, List<Action> actions, List<User> users, Date startDate,
+	                                   Date endDate, Integer start, Integer length) {
+		Criteria criteria = createAuditLogCriteria(classnames, actions, users, startDate, endDate);
+		addOrders(criteria);
+		if (start != null)
+			criteria.setFirstResult(start);
+		
+		if (length != null && length > 0)
+			criteria.setMaxResults(length);
+		
+		return criteria.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getAuditLogsAfter(List, List, List,
+	 *      java.util.Date, java.util.Date, java.util.Date, java.lang.Integer, int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	@Transactional(readOnly = true)
+	public List<AuditLog> getAuditLogsAfter(List<String> classnames, List<Action> actions, List<User> users,
+	                                        Date startDate, Date endDate, Date lastDateCreated, Integer lastAuditLogId,
+	                                        int length) {
+		Criteria criteria = createAuditLogCriteria(classnames, actions, users, startDate, endDate);
+		addOrders(criteria);
+		addSeekRestriction(criteria, lastDateCreated, lastAuditLogId);
+		criteria.setMaxResults(length);
+		
+		return criteria.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getAuditLogSummaries(List, List, List,
+	 *      java.util.Date, java.util.Date, java.util.Date, java.lang.Integer, java.lang.Integer,
+	 *      java.lang.Integer)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	@Transactional(readOnly = true)
+	public List<AuditLogSummary> getAuditLogSummaries(List<String> classnames, List<Action> actions, List<User> users,
+	                                                  Date startDate, Date endDate, Date lastDateCreated,
+	                                                  Integer lastAuditLogId, Integer start, Integer length) {
+		Criteria criteria = createAuditLogCriteria(classnames, actions, users, startDate, endDate);
+		//The user is outer joined for its username and uuid only, it doesn't get loaded
+		criteria.createAlias("user", "u", CriteriaSpecification.LEFT_JOIN);
+		criteria.setProjection(Projections.projectionList().add(Projections.id(), "auditLogId")
+		        .add(Projections.property("uuid"), "uuid").add(Projections.property("className"), "className")
+		        .add(Projections.property("objectUuid"), "objectUuid").add(Projections.property("action"), "action")
+		        .add(Projections.property("dateCreated"), "dateCreated").add(Projections.property("u.userId"), "userId")
+		        .add(Projections.property("u.uuid"), "userUuid").add(Projections.property("u.username"), "username")
+		        .add(Projections.property("changeCount"), "changeCount")
+		        .add(Projections.property("changedProperties"), "changedProperties"));
+		criteria.setResultTransformer(Transformers.aliasToBean(AuditLogSummary.class));
+		addOrders(criteria);
+		if (lastDateCreated != null && lastAuditLogId != null)
+			addSeekRestriction(criteria, lastDateCreated, lastAuditLogId);
+		else if (start != null)
+			criteria.setFirstResult(start);
+		
+		if (length != null && length > 0)
+			criteria.setMaxResults(length);
+		
+		return criteria.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getAuditLogCount(List, List, List,
+	 *      java.util.Date, java.util.Date)
+	 */
+	@Override
+	@Transactional(readOnly = true)
+	public int getAuditLogCount(List<String> classnames, List<Action> actions, List<User> users, Date startDate,
+	                            Date endDate) {
+		Criteria criteria = createAuditLogCriteria(classnames, actions, users, startDate, endDate);
+		criteria.setProjection(Projections.rowCount());
+		
+		return ((Number) criteria.uniqueResult()).intValue();
+	}
+	
+	/**
+	 * Creates a criteria for the audit logs matching the specified arguments
+	 * 
+	 * @param classnames the class names to match against
+	 * @param actions the actions to match against
+	 * @param users the users that triggered the changes to match against
+	 * @param startDate the earliest creation date to match
+	 * @param endDate the latest creation date to match
+	 * @return the criteria
+	 */
+	private Criteria createAuditLogCriteria(List<String> classnames, List<Action> actions, List<User> users,
+	                                        Date startDate, Date endDate) {
 		Criteria criteria = sessionFactory.getCurrentSession().createCriteria(AuditLog.class);
 		if (CollectionUtils.isNotEmpty(classnames))
 			criteria.add(Restrictions.in("className", classnames));
@@ -55,20 +203,242 @@ public class HibernateAuditLogDAO implements AuditLogDAO {
 		if (actions != null)
 			criteria.add(Restrictions.in("action", actions));
 		
+		if (CollectionUtils.isNotEmpty(users))
+			criteria.add(Restrictions.in("user", users));
+		
 		if (startDate != null)
 			criteria.add(Restrictions.ge("dateCreated", startDate));
 		
 		if (endDate != null)
 			criteria.add(Restrictions.le("dateCreated", endDate));
 		
-		if (start != null)
-			criteria.setFirstResult(start);
+		return criteria;
+	}
+	
+	/**
+	 * Restricts the logs to those that follow the specified log in the order of
+	 * {@link #addOrders(Criteria)}, nothing is added if either argument is null
+	 * 
+	 * @param criteria the criteria to restrict
+	 * @param lastDateCreated the date created of the last log of the previous page
+	 * @param lastAuditLogId the id of the last log of the previous page
+	 */
+	private void addSeekRestriction(Criteria criteria, Date lastDateCreated, Integer lastAuditLogId) {
+		if (lastDateCreated == null || lastAuditLogId == null)
+			return;
 		
-		if (length != null && length > 0)
+		//Seek past the last returned log in the sort order, the id breaks ties between logs that
+		//were created within the same second
+		criteria.add(Restrictions.or(Restrictions.lt("dateCreated", lastDateCreated), Restrictions.and(
+		    Restrictions.eq("dateCreated", lastDateCreated), Restrictions.lt("auditLogId", lastAuditLogId))));
+	}
+	
+	/**
+	 * Sorts the logs with the latest ones first, logs created at the same time are sorted by id so
+	 * that the order is stable
+	 * 
+	 * @param criteria the criteria to sort
+	 */
+	private void addOrders(Criteria criteria) {
+		criteria.addOrder(Order.desc("dateCreated"));
+		criteria.addOrder(Order.desc("auditLogId"));
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getAuditLogsForObjects(java.util.List,
+	 *      java.util.Collection, java.util.Date, java.lang.Integer, int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	@Transactional(readOnly = true)
+	public List<AuditLog> getAuditLogsForObjects(List<String> classnames, Collection<String> objectUuids,
+	                                             Date lastDateCreated, Integer lastAuditLogId, int length) {
+		List<AuditLog> auditLogs = new ArrayList<AuditLog>();
+		List<String> uuidList = new ArrayList<String>(objectUuids);
+		for (int from = 0; from < uuidList.size(); from += MAX_IN_CLAUSE_SIZE) {
+			//Each uuid is looked up in the object_uuid and date_created index
+			Criteria criteria = sessionFactory.getCurrentSession().createCriteria(AuditLog.class);
+			if (CollectionUtils.isNotEmpty(classnames))
+				criteria.add(Restrictions.in("className", classnames));
+			criteria.add(Restrictions.in("objectUuid", uuidList.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE,
+			    uuidList.size()))));
+			addOrders(criteria);
+			addSeekRestriction(criteria, lastDateCreated, lastAuditLogId);
 			criteria.setMaxResults(length);
+			auditLogs.addAll(criteria.list());
+		}
+		
+		//Each chunk returns its own page, the page of all the uuids is made of the first entries of
+		//the merged pages
+		if (uuidList.size() > MAX_IN_CLAUSE_SIZE) {
+			Collections.sort(auditLogs, LATEST_FIRST);
+			if (auditLogs.size() > length)
+				auditLogs = new ArrayList<AuditLog>(auditLogs.subList(0, length));
+		}
+		
+		return auditLogs;
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getChildUuids(java.lang.Class,
+	 *      java.lang.String)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	@Transactional(readOnly = true)
+	public Map<Class<? extends OpenmrsObject>, List<String>> getChildUuids(Class<?> clazz, String uuid) {
+		Map<Class<? extends OpenmrsObject>, List<String>> childUuids;
+		childUuids = new HashMap<Class<? extends OpenmrsObject>, List<String>>();
+		ClassMetadata metadata = sessionFactory.getClassMetadata(clazz);
+		if (metadata == null)
+			return childUuids;
+		
+		String[] propertyNames = metadata.getPropertyNames();
+		Type[] propertyTypes = metadata.getPropertyTypes();
+		for (int i = 0; i < propertyNames.length; i++) {
+			if (!propertyTypes[i].isCollectionType())
+				continue;
+			
+			//Only one to many collections hold objects owned by this one
+			CollectionPersister persister = (CollectionPersister) sessionFactory
+			        .getCollectionMetadata(((CollectionType) propertyTypes[i]).getRole());
+			Class<?> elementClass = persister.getElementType().getReturnedClass();
+			if (!persister.isOneToMany() || !OpenmrsObject.class.isAssignableFrom(elementClass)
+			        || !AuditLogUtil.getMonitoringVerdict(elementClass).isMonitored())
+				continue;
+			
+			Query query = sessionFactory.getCurrentSession().createQuery(
+			    "select c.uuid from " + metadata.getEntityName() + " o inner join o." + propertyNames[i]
+			            + " c where o.uuid = :uuid");
+			query.setString("uuid", uuid);
+			List<String> uuids = childUuids.get(elementClass);
+			if (uuids == null) {
+				uuids = new ArrayList<String>();
+				childUuids.put(elementClass.asSubclass(OpenmrsObject.class), uuids);
+			}
+			uuids.addAll(query.list());
+		}
+		
+		return childUuids;
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getPersonNames(java.util.Collection)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	@Transactional(readOnly = true)
+	public Map<Integer, PersonName> getPersonNames(Collection<Integer> userIds) {
+		Map<Integer, PersonName> personNames = new HashMap<Integer, PersonName>();
+		if (CollectionUtils.isEmpty(userIds))
+			return personNames;
+		
+		List<Integer> idList = new ArrayList<Integer>(userIds);
+		for (int from = 0; from < idList.size(); from += MAX_IN_CLAUSE_SIZE) {
+			List<Integer> batch = idList.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE, idList.size()));
+			Query query = sessionFactory.getCurrentSession().createQuery(
+			    "select u.userId, pn from User u inner join u.person p inner join p.names pn "
+			            + "where u.userId in (:userIds) and pn.voided = false");
+			query.setParameterList("userIds", batch);
+			for (Object[] row : (List<Object[]>) query.list()) {
+				PersonName personName = (PersonName) row[1];
+				if (!personNames.containsKey(row[0]) || Boolean.TRUE.equals(personName.isPreferred()))
+					personNames.put((Integer) row[0], personName);
+			}
+		}
+		
+		return personNames;
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getAuditLogsByProperty(List, String,
+	 *      java.util.Date, java.util.Date, java.lang.Integer, java.lang.Integer)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	@Transactional(readOnly = true)
+	public List<AuditLog> getAuditLogsByProperty(List<String> classnames, String propertyName, Date startDate,
+	                                             Date endDate, Integer start, Integer length) {
+		//A property is changed at most once per audit log so the join can't return duplicates
+		StringBuilder hql = new StringBuilder("select a from AuditLog a inner join a.propertyChanges pc "
+		        + "where pc.propertyName = :propertyName");
+		if (CollectionUtils.isNotEmpty(classnames))
+			hql.append(" and pc.className in (:classnames)");
+		if (startDate != null)
+			hql.append(" and a.dateCreated >= :startDate");
+		if (endDate != null)
+			hql.append(" and a.dateCreated <= :endDate");
 		
 		//Show the latest logs first
-		criteria.addOrder(Order.desc("dateCreated"));
+		hql.append(" order by a.dateCreated desc, a.auditLogId desc");
+		
+		Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
+		query.setString("propertyName", propertyName);
+		if (CollectionUtils.isNotEmpty(classnames))
+			query.setParameterList("classnames", classnames);
+		if (startDate != null)
+			query.setTimestamp("startDate", startDate);
+		if (endDate != null)
+			query.setTimestamp("endDate", endDate);
+		
+		if (start != null)
+			query.setFirstResult(start);
+		
+		if (length != null && length > 0)
+			query.setMaxResults(length);
+		
+		return query.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getAuditLogsWithChangesXml(java.lang.Integer,
+	 *      int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<AuditLog> getAuditLogsWithChangesXml(Integer afterAuditLogId, int maxResults) {
+		Criteria criteria = sessionFactory.getCurrentSession().createCriteria(AuditLog.class);
+		criteria.add(Restrictions.like("changesXml", "<", MatchMode.START));
+		//Seek past the processed logs on the primary key instead of scanning them again
+		if (afterAuditLogId != null)
+			criteria.add(Restrictions.gt("auditLogId", afterAuditLogId));
+		criteria.addOrder(Order.asc("auditLogId"));
+		criteria.setMaxResults(maxResults);
+		
+		return criteria.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getAuditLogsWithoutChangeCount(java.lang.Integer,
+	 *      int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<AuditLog> getAuditLogsWithoutChangeCount(Integer afterAuditLogId, int maxResults) {
+		Criteria criteria = sessionFactory.getCurrentSession().createCriteria(AuditLog.class);
+		criteria.add(Restrictions.isNull("changeCount"));
+		if (afterAuditLogId != null)
+			criteria.add(Restrictions.gt("auditLogId", afterAuditLogId));
+		criteria.addOrder(Order.asc("auditLogId"));
+		criteria.setMaxResults(maxResults);
+		
+		return criteria.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getAuditLogsWithoutPropertyChanges(java.lang.Integer,
+	 *      int)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<AuditLog> getAuditLogsWithoutPropertyChanges(Integer afterAuditLogId, int maxResults) {
+		Criteria criteria = sessionFactory.getCurrentSession().createCriteria(AuditLog.class);
+		criteria.add(Restrictions.isNotNull("changesXml"));
+		criteria.add(Restrictions.isEmpty("propertyChanges"));
+		if (afterAuditLogId != null)
+			criteria.add(Restrictions.gt("auditLogId", afterAuditLogId));
+		criteria.addOrder(Order.asc("auditLogId"));
+		criteria.setMaxResults(maxResults);
 		
 		return criteria.list();
 	}
@@ -83,6 +453,181 @@ public class HibernateAuditLogDAO implements AuditLogDAO {
 		return object;
 	}
 	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#saveAll(java.util.Collection)
+	 */
+	@Override
+	@Transactional
+	public void saveAll(Collection<AuditLog> auditLogs) {
+		if (CollectionUtils.isEmpty(auditLogs))
+			return;
+		
+		//The native id generator disables hibernate's insert batching, so we batch the inserts 
+		//ourselves on the session's connection, it is the one the current transaction is using.
+		//Session.doWork doesn't exist in this hibernate version and Session.connection is deprecated
+		Connection connection = ((SessionImplementor) sessionFactory.getCurrentSession()).connection();
+		PreparedStatement ps = null;
+		PreparedStatement propertyChangePs = null;
+		try {
+			ps = connection.prepareStatement(INSERT_AUDIT_LOG_SQL, Statement.RETURN_GENERATED_KEYS);
+			for (AuditLog auditLog : auditLogs) {
+				ps.setString(1, auditLog.getClassName());
+				ps.setString(2, auditLog.getObjectUuid());
+				ps.setString(3, auditLog.getAction().name());
+				if (auditLog.getUser() != null)
+					ps.setInt(4, auditLog.getUser().getUserId());
+				else
+					ps.setNull(4, Types.INTEGER);
+				ps.setString(5, auditLog.getChangesXml());
+				if (auditLog.hasStoredChangeCount())
+					ps.setInt(6, auditLog.getChangeCount());
+				else
+					ps.setNull(6, Types.INTEGER);
+				ps.setString(7, auditLog.getChangedProperties());
+				ps.setTimestamp(8, new Timestamp(auditLog.getDateCreated().getTime()));
+				ps.setString(9, auditLog.getUuid());
+				ps.addBatch();
+			}
+			ps.executeBatch();
+			
+			boolean hasPropertyChanges = false;
+			for (AuditLog auditLog : auditLogs) {
+				if (!auditLog.getPropertyChanges().isEmpty()) {
+					hasPropertyChanges = true;
+					break;
+				}
+			}
+			if (!hasPropertyChanges)
+				return;
+			
+			List<Integer> auditLogIds = getGeneratedIds(ps, auditLogs.size());
+			if (auditLogIds == null)
+				auditLogIds = getAuditLogIds(connection, auditLogs);
+			
+			propertyChangePs = connection.prepareStatement(INSERT_PROPERTY_CHANGE_SQL);
+			int index = 0;
+			for (AuditLog auditLog : auditLogs) {
+				Integer auditLogId = auditLogIds.get(index++);
+				for (PropertyChange propertyChange : auditLog.getPropertyChanges()) {
+					propertyChangePs.setInt(1, auditLogId);
+					propertyChangePs.setString(2, propertyChange.getClassName());
+					propertyChangePs.setString(3, propertyChange.getPropertyName());
+					propertyChangePs.setString(4, propertyChange.getPreviousValue());
+					propertyChangePs.setString(5, propertyChange.getNewValue());
+					propertyChangePs.addBatch();
+				}
+			}
+			propertyChangePs.executeBatch();
+		}
+		catch (SQLException e) {
+			throw new DAOException("Failed to insert " + auditLogs.size() + " audit log(s)", e);
+		}
+		finally {
+			close(ps);
+			close(propertyChangePs);
+		}
+	}
+	
+	/**
+	 * Gets the ids generated by the specified batch insert statement
+	 * 
+	 * @param ps the executed statement
+	 * @param rowCount the number of inserted rows
+	 * @return the generated ids in insertion order or null if the driver didn't return one for each
+	 *         inserted row
+	 */
+	private static List<Integer> getGeneratedIds(PreparedStatement ps, int rowCount) {
+		List<Integer> ids = new ArrayList<Integer>(rowCount);
+		ResultSet rs = null;
+		try {
+			rs = ps.getGeneratedKeys();
+			while (rs.next()) {
+				ids.add(rs.getInt(1));
+			}
+		}
+		catch (SQLException e) {
+			//the driver doesn't support it
+			return null;
+		}
+		finally {
+			close(rs);
+		}
+		
+		return (ids.size() == rowCount) ? ids : null;
+	}
+	
+	/**
+	 * Looks up the ids of the specified inserted audit logs by their uuids
+	 * 
+	 * @param connection the connection the audit logs were inserted with
+	 * @param auditLogs the inserted audit logs
+	 * @return the ids in the iteration order of the audit logs
+	 * @throws SQLException
+	 */
+	private static List<Integer> getAuditLogIds(Connection connection, Collection<AuditLog> auditLogs)
+	    throws SQLException {
+		List<String> uuids = new ArrayList<String>(auditLogs.size());
+		for (AuditLog auditLog : auditLogs) {
+			uuids.add(auditLog.getUuid());
+		}
+		
+		Map<String, Integer> uuidIdMap = new HashMap<String, Integer>();
+		for (int i = 0; i < uuids.size(); i += MAX_IN_CLAUSE_SIZE) {
+			List<String> chunk = uuids.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, uuids.size()));
+			StringBuilder sql = new StringBuilder(SELECT_AUDIT_LOG_IDS_SQL).append('(');
+			for (int j = 0; j < chunk.size(); j++) {
+				sql.append((j > 0) ? ", ?" : "?");
+			}
+			sql.append(')');
+			
+			PreparedStatement ps = null;
+			ResultSet rs = null;
+			try {
+				ps = connection.prepareStatement(sql.toString());
+				for (int j = 0; j < chunk.size(); j++) {
+					ps.setString(j + 1, chunk.get(j));
+				}
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					uuidIdMap.put(rs.getString(1), rs.getInt(2));
+				}
+			}
+			finally {
+				close(rs);
+				close(ps);
+			}
+		}
+		
+		List<Integer> ids = new ArrayList<Integer>(uuids.size());
+		for (String uuid : uuids) {
+			ids.add(uuidIdMap.get(uuid));
+		}
+		
+		return ids;
+	}
+	
+	private static void close(PreparedStatement ps) {
+		if (ps != null) {
+			try {
+				ps.close();
+			}
+			catch (SQLException e) {
+				//ignore
+			}
+		}
+	}
+	
+	private static void close(ResultSet rs) {
+		if (rs != null) {
+			try {
+				rs.close();
+			}
+			catch (SQLException e) {
+				//ignore
+			}
+		}
+	}
+	
 	/**
 	 * @see org.openmrs.module.auditlog.db.AuditLogDAO#delete(Object)
 	 */
@@ -114,4 +659,63 @@ public class HibernateAuditLogDAO implements AuditLogDAO {
 		criteria.add(Restrictions.eq("uuid", uuid));
 		return (T) criteria.uniqueResult();
 	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getObjectsByUuidOrId(java.lang.Class,
+	 *      java.util.Collection, java.util.Collection)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	@Transactional(readOnly = true)
+	public <T> List<T> getObjectsByUuidOrId(Class<T> clazz, Collection<String> uuids, Collection<Integer> ids) {
+		List<T> objects = new ArrayList<T>();
+		List<String> uuidList = (uuids != null) ? new ArrayList<String>(uuids) : new ArrayList<String>();
+		List<Integer> idList = (ids != null) ? new ArrayList<Integer>(ids) : new ArrayList<Integer>();
+		ClassMetadata metadata = sessionFactory.getClassMetadata(clazz);
+		if (metadata == null)
+			return objects;
+		
+		//Both lists are split the same way so that each query has at most 2 IN clauses
+		for (int from = 0; from < Math.max(uuidList.size(), idList.size()); from += MAX_IN_CLAUSE_SIZE) {
+			Disjunction disjunction = Restrictions.disjunction();
+			if (from < uuidList.size())
+				disjunction.add(Restrictions.in("uuid", uuidList.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE,
+				    uuidList.size()))));
+			if (from < idList.size())
+				disjunction.add(Restrictions.in(metadata.getIdentifierPropertyName(), idList.subList(from, Math.min(from
+				        + MAX_IN_CLAUSE_SIZE, idList.size()))));
+			
+			Criteria criteria = sessionFactory.getCurrentSession().createCriteria(clazz);
+			criteria.add(disjunction);
+			objects.addAll(criteria.list());
+		}
+		
+		return objects;
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.db.AuditLogDAO#getUuids(java.lang.Class,
+	 *      java.util.Collection)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<Serializable, String> getUuids(Class<?> clazz, Collection<Serializable> ids) {
+		Map<Serializable, String> uuids = new HashMap<Serializable, String>();
+		ClassMetadata metadata = sessionFactory.getClassMetadata(clazz);
+		if (metadata == null || CollectionUtils.isEmpty(ids))
+			return uuids;
+		
+		List<Serializable> idList = new ArrayList<Serializable>(ids);
+		for (int from = 0; from < idList.size(); from += MAX_IN_CLAUSE_SIZE) {
+			List<Serializable> batch = idList.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE, idList.size()));
+			Criteria criteria = sessionFactory.getCurrentSession().createCriteria(clazz);
+			criteria.add(Restrictions.in(metadata.getIdentifierPropertyName(), batch));
+			criteria.setProjection(Projections.projectionList().add(Projections.id()).add(Projections.property("uuid")));
+			for (Object[] row : (List<Object[]>) criteria.list()) {
+				uuids.put((Serializable) row[0], (String) row[1]);
+			}
+		}
+		
+		return uuids;
+	}
 }
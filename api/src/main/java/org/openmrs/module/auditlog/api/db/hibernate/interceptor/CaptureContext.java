@@ -0,0 +1,177 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.api.db.hibernate.interceptor;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openmrs.OpenmrsObject;
+
+/**
+ * Holds the changes to monitored objects captured by the {@link HibernateAuditLogInterceptor}
+ * during a transaction. An instance is created for a thread the first time a monitored object is
+ * intercepted in it and is then cleared and reused for the following transactions of that thread,
+ * so transactions that don't touch any monitored object don't allocate anything.
+ */
+final class CaptureContext {
+	
+	//Collections that grew beyond this size are replaced instead of cleared when the context is
+	//cleared so that a single big transaction doesn't keep large tables around for the thread
+	private static final int MAX_RETAINED_SIZE = 256;
+	
+	//we use a set because the same object can be loaded multiple times, the sets are identity based
+	//because a session has a single instance per entity and calling the hashCode and equals methods
+	//of entities can touch their properties and initialize proxies
+	private Set<OpenmrsObject> inserts = newIdentitySet();
+	
+	private Set<OpenmrsObject> updates = newIdentitySet();
+	
+	private Set<OpenmrsObject> deletes = newIdentitySet();
+	
+	//Used to stored updates for implicitly monitored objects in the session
+	private Set<OpenmrsObject> otherUpdates = newIdentitySet();
+	
+	//Mapping between object uuids and maps of its changed property names and their older values, the first item in the array is the old value while the the second is the new value
+	private Map<String, Map<String, Object[]>> objectChangesMap = new HashMap<String, Map<String, Object[]>>();
+	
+	//Identity set of the monitored entities in the current session whose collections have been indexed
+	private Set<Object> indexedOwners = newIdentitySet();
+	
+	//Mapping between the elements of the collections of monitored entities in the current session and the entities owning them
+	private Map<Object, List<OpenmrsObject>> elementOwnersMap = new IdentityHashMap<Object, List<OpenmrsObject>>();
+	
+	//we will need to disable the interceptor when saving the auditlog to avoid going in circles
+	private boolean interceptorDisabled;
+	
+	/**
+	 * @return the inserted objects
+	 */
+	Set<OpenmrsObject> getInserts() {
+		return inserts;
+	}
+	
+	/**
+	 * @return the updated monitored objects
+	 */
+	Set<OpenmrsObject> getUpdates() {
+		return updates;
+	}
+	
+	/**
+	 * @return the deleted objects
+	 */
+	Set<OpenmrsObject> getDeletes() {
+		return deletes;
+	}
+	
+	/**
+	 * @return the updated implicitly monitored objects
+	 */
+	Set<OpenmrsObject> getOtherUpdates() {
+		return otherUpdates;
+	}
+	
+	/**
+	 * @return the mapping between object uuids and their property changes
+	 */
+	Map<String, Map<String, Object[]>> getObjectChangesMap() {
+		return objectChangesMap;
+	}
+	
+	/**
+	 * @return the identity set of entities whose collections have been indexed
+	 */
+	Set<Object> getIndexedOwners() {
+		return indexedOwners;
+	}
+	
+	/**
+	 * @return the mapping between collection elements and the entities owning them
+	 */
+	Map<Object, List<OpenmrsObject>> getElementOwnersMap() {
+		return elementOwnersMap;
+	}
+	
+	/**
+	 * @return true if no inserted, updated or deleted object has been captured
+	 */
+	boolean hasNoChanges() {
+		return inserts.isEmpty() && updates.isEmpty() && deletes.isEmpty() && otherUpdates.isEmpty();
+	}
+	
+	/**
+	 * @return true if the interceptor is disabled
+	 */
+	boolean isInterceptorDisabled() {
+		return interceptorDisabled;
+	}
+	
+	/**
+	 * @param interceptorDisabled the interceptorDisabled to set
+	 */
+	void setInterceptorDisabled(boolean interceptorDisabled) {
+		this.interceptorDisabled = interceptorDisabled;
+	}
+	
+	/**
+	 * Discards everything captured so far so that the context can be reused for another
+	 * transaction
+	 */
+	void clear() {
+		if (inserts.size() > MAX_RETAINED_SIZE)
+			inserts = newIdentitySet();
+		else
+			inserts.clear();
+		
+		if (updates.size() > MAX_RETAINED_SIZE)
+			updates = newIdentitySet();
+		else
+			updates.clear();
+		
+		if (deletes.size() > MAX_RETAINED_SIZE)
+			deletes = newIdentitySet();
+		else
+			deletes.clear();
+		
+		if (otherUpdates.size() > MAX_RETAINED_SIZE)
+			otherUpdates = newIdentitySet();
+		else
+			otherUpdates.clear();
+		
+		if (objectChangesMap.size() > MAX_RETAINED_SIZE)
+			objectChangesMap = new HashMap<String, Map<String, Object[]>>();
+		else
+			objectChangesMap.clear();
+		
+		if (indexedOwners.size() > MAX_RETAINED_SIZE)
+			indexedOwners = newIdentitySet();
+		else
+			indexedOwners.clear();
+		
+		if (elementOwnersMap.size() > MAX_RETAINED_SIZE)
+			elementOwnersMap = new IdentityHashMap<Object, List<OpenmrsObject>>();
+		else
+			elementOwnersMap.clear();
+		
+		interceptorDisabled = false;
+	}
+	
+	private static <T> Set<T> newIdentitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.api.db.hibernate.interceptor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The elements that were added to and removed from a collection or map, they are found by counting
+ * the elements of the previous state in a hash map and then matching those of the current state
+ * against it so that the diff takes linear time even for list backed collections
+ */
+final class CollectionDiff {
+	
+	private final List<Object> added;
+	
+	private final List<Object> removed;
+	
+	private CollectionDiff(List<Object> added, List<Object> removed) {
+		this.added = added;
+		this.removed = removed;
+	}
+	
+	/**
+	 * Computes the elements that were added and removed between the specified states of a
+	 * collection, an element that occurs more times in one state than in the other is added or
+	 * removed as many times as the difference
+	 *
+	 * @param previous the previous elements, can be null
+	 * @param current the current elements, can be null
+	 * @param byIdentity specifies if elements are compared by identity or by equality, entities
+	 *            should be compared by identity since calling their equals methods could initialize
+	 *            proxies and a session holds a single instance per entity
+	 * @return the diff
+	 */
+	static CollectionDiff diff(Collection<?> previous, Collection<?> current, boolean byIdentity) {
+		if (previous == null)
+			previous = Collections.emptyList();
+		if (current == null)
+			current = Collections.emptyList();
+		
+		Map<Object, int[]> counts = newMap(byIdentity, previous.size());
+		for (Object element : previous) {
+			int[] count = counts.get(element);
+			if (count == null)
+				counts.put(element, new int[] { 1 });
+			else
+				count[0]++;
+		}
+		
+		List<Object> added = new ArrayList<Object>();
+		for (Object element : current) {
+			int[] count = counts.get(element);
+			if (count == null || count[0] == 0)
+				added.add(element);
+			else
+				count[0]--;
+		}
+		
+		List<Object> removed = new ArrayList<Object>();
+		for (Map.Entry<Object, int[]> entry : counts.entrySet()) {
+			for (int i = 0; i < entry.getValue()[0]; i++) {
+				removed.add(entry.getKey());
+			}
+		}
+		
+		return new CollectionDiff(added, removed);
+	}
+	
+	/**
+	 * Computes the entries that were added and removed between the specified states of a map, an
+	 * entry whose value was replaced is treated as removed with its previous value and added with
+	 * its new value
+	 *
+	 * @param previous the previous state, can be null
+	 * @param current the current state, can be null
+	 * @param keysByIdentity specifies if keys are compared by identity or by equality
+	 * @param valuesByIdentity specifies if values are compared by identity or by equality
+	 * @return the diff whose added and removed elements are {@link Map.Entry} instances
+	 */
+	static CollectionDiff diffMaps(Map<?, ?> previous, Map<?, ?> current, boolean keysByIdentity,
+	                               boolean valuesByIdentity) {
+		if (previous == null)
+			previous = Collections.emptyMap();
+		if (current == null)
+			current = Collections.emptyMap();
+		
+		Map<Object, Map.Entry<?, ?>> previousEntries = newMap(keysByIdentity, previous.size());
+		for (Map.Entry<?, ?> entry : previous.entrySet()) {
+			previousEntries.put(entry.getKey(), entry);
+		}
+		
+		List<Object> added = new ArrayList<Object>();
+		List<Object> removed = new ArrayList<Object>();
+		for (Map.Entry<?, ?> entry : current.entrySet()) {
+			Map.Entry<?, ?> previousEntry = previousEntries.remove(entry.getKey());
+			if (previousEntry == null) {
+				added.add(entry);
+			} else if (!isSameValue(previousEntry.getValue(), entry.getValue(), valuesByIdentity)) {
+				removed.add(previousEntry);
+				added.add(entry);
+			}
+		}
+		removed.addAll(previousEntries.values());
+		
+		return new CollectionDiff(added, removed);
+	}
+	
+	/**
+	 * @return the added elements
+	 */
+	List<Object> getAdded() {
+		return added;
+	}
+	
+	/**
+	 * @return the removed elements
+	 */
+	List<Object> getRemoved() {
+		return removed;
+	}
+	
+	/**
+	 * @return true if no element was added or removed
+	 */
+	boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty();
+	}
+	
+	private static boolean isSameValue(Object previous, Object current, boolean byIdentity) {
+		if (byIdentity || previous == null)
+			return previous == current;
+		
+		return previous.equals(current);
+	}
+	
+	private static <V> Map<Object, V> newMap(boolean byIdentity, int expectedSize) {
+		if (byIdentity)
+			return new IdentityHashMap<Object, V>(expectedSize);
+		
+		return new HashMap<Object, V>(Math.max(16, (int) (expectedSize / 0.75f) + 1));
+	}
+}
@@ -0,0 +1,291 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.api.db.hibernate.interceptor;
+
+import java.beans.PropertyDescriptor;
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.EntityMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.hibernate.type.StringType;
+import org.hibernate.type.TextType;
+import org.hibernate.type.Type;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.auditlog.api.db.EntityReference;
+import org.openmrs.module.auditlog.util.AuditLogConstants;
+import org.openmrs.util.Reflect;
+import org.springframework.beans.BeanUtils;
+
+/**
+ * Holds what {@link HibernateAuditLogInterceptor#onFlushDirty} needs to know about each property of
+ * an entity class i.e which properties to compare, which ones are strings for which changes from
+ * null to blank are ignored and how to flatten their values. It is computed once per class from the
+ * hibernate metadata so that no reflection or type name comparisons happen for each dirty entity.
+ */
+final class EntityDiffPlan {
+	
+	private static final Log log = LogFactory.getLog(EntityDiffPlan.class);
+	
+	//The plans are computed from the metadata of a session factory, they are replaced together with
+	//it when the application context is refreshed so that no stale metadata is used
+	private static volatile PlanCache planCache = new PlanCache(null);
+	
+	private static final PropertyValueFlattener SIMPLE_VALUE_FLATTENER = new PropertyValueFlattener() {
+		
+		@Override
+		public Object flatten(Object value) {
+			//TODO take care of proper serialization of Dates, Enums, Class, Locale
+			return (value != null) ? value.toString() : "";
+		}
+	};
+	
+	private static final PropertyValueFlattener OPENMRS_OBJECT_FLATTENER = new PropertyValueFlattener() {
+		
+		@Override
+		public Object flatten(Object value) {
+			if (value == null)
+				return "";
+			
+			//Getting the uuid of a proxy would initialize it, the uuid gets looked up when writing the log
+			if (value instanceof HibernateProxy) {
+				LazyInitializer initializer = ((HibernateProxy) value).getHibernateLazyInitializer();
+				if (initializer.isUninitialized())
+					return new EntityReference(initializer.getPersistentClass(), initializer.getIdentifier());
+			}
+			
+			return AuditLogConstants.UUID_LABEL + ((OpenmrsObject) value).getUuid();
+		}
+	};
+	
+	//Used for types for which we don't store the values
+	private static final PropertyValueFlattener NO_VALUE_FLATTENER = new PropertyValueFlattener() {
+		
+		@Override
+		public Object flatten(Object value) {
+			return "";
+		}
+	};
+	
+	//The indexes of the properties to compare
+	private final int[] checkedIndexes;
+	
+	//The flags and flatteners below are indexed by property index
+	private final boolean[] stringIndexes;
+	
+	private final boolean[] associationIndexes;
+	
+	private final PropertyValueFlattener[] flatteners;
+	
+	private EntityDiffPlan(int[] checkedIndexes, boolean[] stringIndexes, boolean[] associationIndexes,
+	    PropertyValueFlattener[] flatteners) {
+		this.checkedIndexes = checkedIndexes;
+		this.stringIndexes = stringIndexes;
+		this.associationIndexes = associationIndexes;
+		this.flatteners = flatteners;
+	}
+	
+	/**
+	 * Gets the diff plan for the specified entity class, creating it if it doesn't exist yet
+	 *
+	 * @param entityClass the entity class
+	 * @param propertyNames the property names as passed to the interceptor, only used if the class
+	 *            has no metadata
+	 * @param types the property types as passed to the interceptor, only used if the class has no
+	 *            metadata
+	 * @param sessionFactory the session factory to get the class metadata from
+	 * @return the diff plan
+	 */
+	static EntityDiffPlan getPlan(Class<?> entityClass, String[] propertyNames, Type[] types,
+	                              SessionFactory sessionFactory) {
+		PlanCache cache = planCache;
+		if (cache.sessionFactory != sessionFactory) {
+			cache = new PlanCache(sessionFactory);
+			planCache = cache;
+		}
+		
+		EntityDiffPlan plan = cache.plans.get(entityClass);
+		if (plan == null) {
+			ClassMetadata metadata = sessionFactory.getClassMetadata(entityClass);
+			if (metadata != null && metadata.getPropertyNames().length == propertyNames.length) {
+				propertyNames = metadata.getPropertyNames();
+				types = metadata.getPropertyTypes();
+			}
+			
+			plan = createPlan(entityClass, propertyNames, types, sessionFactory);
+			EntityDiffPlan existing = cache.plans.putIfAbsent(entityClass, plan);
+			if (existing != null)
+				plan = existing;
+		}
+		
+		return plan;
+	}
+	
+	private static EntityDiffPlan createPlan(Class<?> entityClass, String[] propertyNames, Type[] types,
+	                                         SessionFactory sessionFactory) {
+		if (log.isDebugEnabled())
+			log.debug("Creating diff plan for:" + entityClass.getName());
+		
+		int[] indexes = new int[propertyNames.length];
+		int count = 0;
+		boolean[] stringIndexes = new boolean[propertyNames.length];
+		boolean[] associationIndexes = new boolean[propertyNames.length];
+		PropertyValueFlattener[] flatteners = new PropertyValueFlattener[propertyNames.length];
+		for (int i = 0; i < propertyNames.length; i++) {
+			//we need to ignore dateChanged and changedBy fields in any case they
+			//are actually part of the Auditlog in form of user and dateCreated
+			//TODO Should we take care of personDateChanged and personDateChangedBy
+			if ("dateChanged".equals(propertyNames[i]) || "changedBy".equals(propertyNames[i]))
+				continue;
+			
+			//TODO Ignore user defined ignored properties
+			
+			Class<?> propertyType = getPropertyType(entityClass, propertyNames[i], types[i]);
+			//Changes in collections are handled in onCollectionUpdate
+			if (Reflect.isCollection(propertyType))
+				continue;
+			
+			indexes[count++] = i;
+			//For string properties, ignore changes from null to blank and vice versa
+			stringIndexes[i] = StringType.class.getName().equals(types[i].getClass().getName())
+			        || TextType.class.getName().equals(types[i].getClass().getName());
+			associationIndexes[i] = types[i].isAssociationType() && !types[i].isCollectionType();
+			flatteners[i] = createFlattener(entityClass, propertyNames[i], propertyType, types[i], sessionFactory);
+		}
+		
+		int[] checkedIndexes = new int[count];
+		System.arraycopy(indexes, 0, checkedIndexes, 0, count);
+		
+		return new EntityDiffPlan(checkedIndexes, stringIndexes, associationIndexes, flatteners);
+	}
+	
+	private static Class<?> getPropertyType(Class<?> entityClass, String propertyName, Type type) {
+		PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(entityClass, propertyName);
+		if (descriptor != null && descriptor.getPropertyType() != null)
+			return descriptor.getPropertyType();
+		
+		//The property is probably mapped with field access
+		return type.getReturnedClass();
+	}
+	
+	private static PropertyValueFlattener createFlattener(Class<?> entityClass, String propertyName,
+	                                                      Class<?> propertyType, Type type, SessionFactory sessionFactory) {
+		if (BeanUtils.isSimpleValueType(propertyType))
+			return SIMPLE_VALUE_FLATTENER;
+		
+		if (type.isAssociationType() && !type.isCollectionType()) {
+			//this is an association, store the primary key value
+			if (OpenmrsObject.class.isAssignableFrom(propertyType))
+				return OPENMRS_OBJECT_FLATTENER;
+			
+			final ClassMetadata metadata = sessionFactory.getClassMetadata(propertyType);
+			if (metadata != null) {
+				return new PropertyValueFlattener() {
+					
+					@Override
+					public Object flatten(Object value) {
+						if (value != null) {
+							Serializable id;
+							if (value instanceof HibernateProxy)
+								id = ((HibernateProxy) value).getHibernateLazyInitializer().getIdentifier();
+							else
+								id = metadata.getIdentifier(value, EntityMode.POJO);
+							if (id != null)
+								return AuditLogConstants.ID_LABEL + id.toString();
+						}
+						
+						return "";
+					}
+				};
+			}
+		} else if (type.isComponentType()) {
+			//TODO Handle component types properly if necessary
+			return NO_VALUE_FLATTENER;
+		} else if (type.isCollectionType()) {
+			//Maps are collection types in hibernate but are not handled in onCollectionUpdate
+			return NO_VALUE_FLATTENER;
+		}
+		
+		//TODO take care of other types, composite primary keys etc
+		log.info("Audit log module doesn't currently store changes in items of type:" + type + " for property:"
+		        + propertyName + " of " + entityClass.getName());
+		
+		return NO_VALUE_FLATTENER;
+	}
+	
+	/**
+	 * Flattens an element of a collection, {@link OpenmrsObject}s are flattened like the values of
+	 * association properties i.e. to their uuids
+	 *
+	 * @param element the element to flatten, can be null
+	 * @return the flattened element
+	 */
+	static Object flattenElement(Object element) {
+		if (element instanceof OpenmrsObject)
+			return OPENMRS_OBJECT_FLATTENER.flatten(element);
+		
+		return SIMPLE_VALUE_FLATTENER.flatten(element);
+	}
+	
+	/**
+	 * @return the indexes of the properties to compare
+	 */
+	int[] getCheckedIndexes() {
+		return checkedIndexes;
+	}
+	
+	/**
+	 * @param index the property index
+	 * @return true if changes from null to blank and vice versa should be ignored for the property
+	 */
+	boolean isString(int index) {
+		return stringIndexes[index];
+	}
+	
+	/**
+	 * @param index the property index
+	 * @return true if the property is a many to one or one to one association
+	 */
+	boolean isAssociation(int index) {
+		return associationIndexes[index];
+	}
+	
+	/**
+	 * @param index the property index
+	 * @return the flattener to use for values of the property
+	 */
+	PropertyValueFlattener getFlattener(int index) {
+		return flatteners[index];
+	}
+	
+	/**
+	 * The diff plans created from the metadata of a single session factory
+	 */
+	private static final class PlanCache {
+		
+		private final SessionFactory sessionFactory;
+		
+		private final ConcurrentMap<Class<?>, EntityDiffPlan> plans = new ConcurrentHashMap<Class<?>, EntityDiffPlan>();
+		
+		private PlanCache(SessionFactory sessionFactory) {
+			this.sessionFactory = sessionFactory;
+		}
+	}
+}
@@ -2,16 +2,14 @@ package org.openmrs.module.auditlog.api.db.hibernate.interceptor;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -19,29 +17,26 @@ import org.apache.commons.logging.LogFactory;
 import org.hibernate.CallbackException;
 import org.hibernate.EmptyInterceptor;
 import org.hibernate.EntityMode;
-import org.hibernate.FlushMode;
 import org.hibernate.Interceptor;
-import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.hibernate.collection.PersistentCollection;
-import org.hibernate.collection.PersistentMap;
 import org.hibernate.metadata.ClassMetadata;
-import org.hibernate.type.StringType;
-import org.hibernate.type.TextType;
+import org.hibernate.metadata.CollectionMetadata;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
 import org.hibernate.type.Type;
 import org.openmrs.OpenmrsObject;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.auditlog.AuditLog;
 import org.openmrs.module.auditlog.AuditLog.Action;
-import org.openmrs.module.auditlog.MonitoringStrategy;
-import org.openmrs.module.auditlog.api.db.AuditLogDAO;
+import org.openmrs.module.auditlog.api.db.AuditLogEvent;
+import org.openmrs.module.auditlog.api.db.AuditLogWriter;
 import org.openmrs.module.auditlog.util.AuditLogConstants;
 import org.openmrs.module.auditlog.util.AuditLogUtil;
+import org.openmrs.module.auditlog.util.MonitoringVerdict;
 import org.openmrs.util.OpenmrsUtil;
-import org.openmrs.util.Reflect;
-import org.springframework.beans.BeanUtils;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -59,32 +54,17 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 	
 	private static final Log log = LogFactory.getLog(HibernateAuditLogInterceptor.class);
 	
-	//we use a set because the same object can be loaded multiple times
-	private ThreadLocal<HashSet<OpenmrsObject>> inserts = new ThreadLocal<HashSet<OpenmrsObject>>();
+	//The changes captured in the current transaction, it is created for a thread on the first
+	//intercepted monitored object and then reused for its following transactions
+	private ThreadLocal<CaptureContext> captureContext = new ThreadLocal<CaptureContext>();
 	
-	private ThreadLocal<HashSet<OpenmrsObject>> updates = new ThreadLocal<HashSet<OpenmrsObject>>();
-	
-	private ThreadLocal<HashSet<OpenmrsObject>> deletes = new ThreadLocal<HashSet<OpenmrsObject>>();
-	
-	//Used to stored updates for implicitly monitored objects in the session 
-	private ThreadLocal<HashSet<OpenmrsObject>> otherUpdates = new ThreadLocal<HashSet<OpenmrsObject>>();
-	
-	//Mapping between object uuids and maps of its changed property names and their older values, the first item in the array is the old value while the the second is the new value
-	private ThreadLocal<Map<String, Map<String, Object[]>>> objectChangesMap = new ThreadLocal<Map<String, Map<String, Object[]>>>();
-	
-	//Mapping between entities and lists of their Collections in the current session
-	private ThreadLocal<Map<Object, List<Collection<?>>>> entityCollectionsMap = new ThreadLocal<Map<Object, List<Collection<?>>>>();
-	
-	//we will need to disable the interceptor when saving the auditlog to avoid going in circles
-	private ThreadLocal<Boolean> disableInterceptor = new ThreadLocal<Boolean>();
-	
-	private AuditLogDAO auditLogDao;
+	private AuditLogWriter auditLogWriter;
 	
 	private SessionFactory sessionFactory;
 	
 	/**
-	 * We need access to this to get the auditLogDao bean, the saveAuditLog method is not available
-	 * to in auditLogservice to ensure no other code creates log entries. We also need the
+	 * We need access to this to get the auditLogWriter bean, the saveAuditLog method is not
+	 * available to in auditLogservice to ensure no other code creates log entries. We also need the
 	 * sessionFactory instance to be able to get class metadata of mapped classes,
 	 */
 	private ApplicationContext applicationContext;
@@ -95,16 +75,25 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 	@Override
 	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
 		this.applicationContext = applicationContext;
+		//the context is getting refreshed, we need to pick up the new session factory and its mappings
+		sessionFactory = null;
 	}
 	
 	/**
-	 * @return the dao
+	 * @return the auditLogWriter
 	 */
-	public AuditLogDAO getAuditLogDao() {
-		if (auditLogDao == null)
-			auditLogDao = applicationContext.getBean(AuditLogDAO.class);
+	public AuditLogWriter getAuditLogWriter() {
+		if (auditLogWriter == null)
+			auditLogWriter = applicationContext.getBean(AuditLogWriter.class);
 		
-		return auditLogDao;
+		return auditLogWriter;
+	}
+	
+	/**
+	 * @param auditLogWriter the auditLogWriter to set
+	 */
+	public void setAuditLogWriter(AuditLogWriter auditLogWriter) {
+		this.auditLogWriter = auditLogWriter;
 	}
 	
 	/**
@@ -112,12 +101,10 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 	 */
 	@Override
 	public void afterTransactionBegin(Transaction tx) {
-		inserts.set(new HashSet<OpenmrsObject>());
-		updates.set(new HashSet<OpenmrsObject>());
-		deletes.set(new HashSet<OpenmrsObject>());
-		otherUpdates.set(new HashSet<OpenmrsObject>());
-		objectChangesMap.set(new HashMap<String, Map<String, Object[]>>());
-		entityCollectionsMap.set(new HashMap<Object, List<Collection<?>>>());
+		//Discard anything left behind by a transaction that never completed
+		CaptureContext context = captureContext.get();
+		if (context != null)
+			context.clear();
 	}
 	
 	/**
@@ -132,7 +119,7 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 				log.debug("Creating log entry for created object with uuid:" + openmrsObject.getUuid() + " of type:"
 				        + entity.getClass().getName());
 			
-			inserts.get().add(openmrsObject);
+			getCaptureContext().getInserts().add(openmrsObject);
 		}
 		
 		return false;
@@ -146,28 +133,38 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
 	                            String[] propertyNames, Type[] types) {
 		
-		if (isMonitored(entity) && propertyNames != null) {
+		MonitoringVerdict verdict = getMonitoringVerdict(entity);
+		if (verdict.isMonitored() && propertyNames != null) {
 			OpenmrsObject openmrsObject = (OpenmrsObject) entity;
 			Map<String, Object[]> propertyChangesMap = null;
-			for (int i = 0; i < propertyNames.length; i++) {
-				//we need to ignore dateChanged and changedBy fields in any case they
-				//are actually part of the Auditlog in form of user and dateCreated
-				//TODO Should we take care of personDateChanged and personDateChangedBy
-				if ("dateChanged".equals(propertyNames[i]) || "changedBy".equals(propertyNames[i]))
-					continue;
-				
-				//TODO Ignore user defined ignored properties
-				
+			EntityDiffPlan plan = EntityDiffPlan.getPlan(entity.getClass(), propertyNames, types, getSessionFactory());
+			for (int i : plan.getCheckedIndexes()) {
 				Object previousValue = (previousState != null) ? previousState[i] : null;
 				Object currentValue = (currentState != null) ? currentState[i] : null;
-				Class<?> propertyType = BeanUtils.getPropertyDescriptor(entity.getClass(), propertyNames[i])
-				        .getPropertyType();
+				if (currentValue == previousValue)
+					continue;
 				
-				if (!Reflect.isCollection(propertyType) && !OpenmrsUtil.nullSafeEquals(currentValue, previousValue)) {
+				PropertyValueFlattener flattener = plan.getFlattener(i);
+				Object flattenedPreviousValue;
+				Object flattenedCurrentValue;
+				if (plan.isAssociation(i)) {
+					//Compare the entity names and identifiers first since a proxy and the initialized entity
+					//flatten differently, calling equals on the associated objects could initialize proxies
+					Object[] previousIdentity = getEntityIdentity(previousValue);
+					if (previousIdentity != null && Arrays.equals(previousIdentity, getEntityIdentity(currentValue)))
+						continue;
+					
+					flattenedPreviousValue = flattener.flatten(previousValue);
+					flattenedCurrentValue = flattener.flatten(currentValue);
+					if (flattenedPreviousValue.equals(flattenedCurrentValue))
+						continue;
+				} else {
+					if (OpenmrsUtil.nullSafeEquals(currentValue, previousValue))
+						continue;
+					
 					//For string properties, ignore changes from null to blank and vice versa
 					//TODO This should be user configurable via a module GP
-					if (StringType.class.getName().equals(types[i].getClass().getName())
-					        || TextType.class.getName().equals(types[i].getClass().getName())) {
+					if (plan.isString(i)) {
 						String currentStateString = null;
 						if (currentValue != null && !StringUtils.isBlank(currentValue.toString()))
 							currentStateString = currentValue.toString();
@@ -181,47 +178,14 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 							continue;
 					}
 					
-					if (propertyChangesMap == null)
-						propertyChangesMap = new HashMap<String, Object[]>();
-					
-					String flattenedPreviousValue = "";
-					String flattenedCurrentValue = "";
-					
-					if (BeanUtils.isSimpleValueType(propertyType)) {
-						//TODO take care of proper serialization of Dates, Enums, Class, Locale
-						flattenedPreviousValue = (previousValue != null) ? previousValue.toString() : "";
-						flattenedCurrentValue = (currentValue != null) ? currentValue.toString() : "";
-					} else if (types[i].isAssociationType() && !types[i].isCollectionType()) {
-						//this is an association, store the primary key value
-						if (OpenmrsObject.class.isAssignableFrom(propertyType)) {
-							if (previousValue != null) {
-								flattenedPreviousValue = AuditLogConstants.UUID_LABEL
-								        + ((OpenmrsObject) previousValue).getUuid();
-							}
-							if (currentValue != null) {
-								flattenedCurrentValue = AuditLogConstants.UUID_LABEL
-								        + ((OpenmrsObject) currentValue).getUuid();
-							}
-						} else {
-							ClassMetadata metadata = getSessionFactory().getClassMetadata(propertyType);
-							if (previousValue != null && metadata.getIdentifier(previousValue, EntityMode.POJO) != null) {
-								flattenedPreviousValue = AuditLogConstants.ID_LABEL
-								        + metadata.getIdentifier(previousValue, EntityMode.POJO).toString();
-							}
-							if (currentValue != null && metadata.getIdentifier(currentValue, EntityMode.POJO) != null) {
-								flattenedCurrentValue = AuditLogConstants.ID_LABEL
-								        + metadata.getIdentifier(currentValue, EntityMode.POJO).toString();
-							}
-						}
-					} else if (types[i].isComponentType()) {
-						//TODO Handle component types properly if necessary
-					} else if (!types[i].isCollectionType()) {
-						//TODO take care of other types, composite primary keys etc
-						log.info("Audit log module doesn't currently store changes in items of type:" + types[i]);
-					}
-					
-					propertyChangesMap.put(propertyNames[i], new Object[] { flattenedPreviousValue, flattenedCurrentValue });
+					flattenedPreviousValue = flattener.flatten(previousValue);
+					flattenedCurrentValue = flattener.flatten(currentValue);
 				}
+				
+				if (propertyChangesMap == null)
+					propertyChangesMap = new HashMap<String, Object[]>();
+				
+				propertyChangesMap.put(propertyNames[i], new Object[] { flattenedPreviousValue, flattenedCurrentValue });
 			}
 			
 			if (MapUtils.isNotEmpty(propertyChangesMap)) {
@@ -229,18 +193,56 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 					log.debug("Creating log entry for updated object with uuid:" + openmrsObject.getUuid() + " of type:"
 					        + entity.getClass().getName());
 				
-				if (AuditLogUtil.getMonitoredClasses().contains(openmrsObject.getClass()))
-					updates.get().add(openmrsObject);
+				CaptureContext context = getCaptureContext();
+				if (verdict == MonitoringVerdict.MONITORED)
+					context.getUpdates().add(openmrsObject);
 				else
-					otherUpdates.get().add(openmrsObject);
+					context.getOtherUpdates().add(openmrsObject);
 				
-				objectChangesMap.get().put(openmrsObject.getUuid(), propertyChangesMap);
+				addChanges(openmrsObject, propertyChangesMap);
 			}
 		}
 		
 		return false;
 	}
 	
+	/**
+	 * Gets the root entity name and the identifier of the specified associated object without
+	 * initializing it if it is a proxy, the root entity name is used because subclasses share the
+	 * identifiers of their root entity e.g. a Patient can be proxied as a Person
+	 * 
+	 * @param value the associated object
+	 * @return an array with the root entity name and the identifier or null if the object is not a
+	 *         saved entity
+	 */
+	private Object[] getEntityIdentity(Object value) {
+		if (value == null)
+			return null;
+		
+		String entityName;
+		Serializable id;
+		if (value instanceof HibernateProxy) {
+			LazyInitializer initializer = ((HibernateProxy) value).getHibernateLazyInitializer();
+			entityName = initializer.getEntityName();
+			id = initializer.getIdentifier();
+		} else {
+			ClassMetadata metadata = getSessionFactory().getClassMetadata(value.getClass());
+			if (metadata == null)
+				return null;
+			
+			entityName = metadata.getEntityName();
+			id = metadata.getIdentifier(value, EntityMode.POJO);
+		}
+		if (id == null)
+			return null;
+		
+		ClassMetadata metadata = getSessionFactory().getClassMetadata(entityName);
+		if (metadata instanceof EntityPersister)
+			entityName = ((EntityPersister) metadata).getRootEntityName();
+		
+		return new Object[] { entityName, id };
+	}
+	
 	/**
 	 * @see org.hibernate.EmptyInterceptor#onDelete(java.lang.Object, java.io.Serializable,
 	 *      java.lang.Object[], java.lang.String[], org.hibernate.type.Type[])
@@ -253,7 +255,7 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 				log.debug("Creating log entry for deleted object with uuid:" + openmrsObject.getUuid() + " of type:"
 				        + entity.getClass().getName());
 			
-			deletes.get().add(openmrsObject);
+			getCaptureContext().getDeletes().add(openmrsObject);
 		}
 	}
 	
@@ -261,44 +263,96 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 	 * @see org.hibernate.EmptyInterceptor#onCollectionUpdate(java.lang.Object,
 	 *      java.io.Serializable)
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public void onCollectionUpdate(Object collection, Serializable key) throws CallbackException {
-		if (collection != null && Collection.class.isAssignableFrom(collection.getClass())) {
-			PersistentCollection persistentColl = ((PersistentCollection) collection);
-			Object owningObject = persistentColl.getOwner();
-			if (isMonitored(owningObject)) {
-				Set<Object> addedItems = new HashSet<Object>();
-				Set<Object> removedItems = new HashSet<Object>();
-				Collection currentColl = (Collection) collection;
-				Map previousMap = (Map) persistentColl.getStoredSnapshot();
-				addedItems.addAll(CollectionUtils.subtract(currentColl, previousMap.values()));
-				removedItems.addAll(CollectionUtils.subtract(previousMap.values(), currentColl));
-				
-				if (addedItems.size() > 0) {
-					//System.out.println("Added:" + addedItems);
-					//TODO Generate xml
-					
-				}
-				if (removedItems.size() > 0) {
-					//System.out.println("Removed:" + removedItems);
-					//TODO Generate xml
-					//TODO Create DELETED log for the removed item here because hibernate doens't call 
-					//interceptor.onDelete for an element that is removed from a child collection
-					
-				}
-				
-				updates.get().add((OpenmrsObject) owningObject);
+		if (!(collection instanceof PersistentCollection))
+			return;
+		
+		PersistentCollection persistentColl = (PersistentCollection) collection;
+		Object owningObject = persistentColl.getOwner();
+		if (owningObject == null || !isMonitored(owningObject))
+			return;
+		
+		CollectionDiff diff = getCollectionDiff(persistentColl);
+		if (diff == null) {
+			log.error("Can't create log entry for updated collection:" + persistentColl.getRole() + " in class:"
+			        + owningObject.getClass());
+		} else if (!diff.isEmpty()) {
+			//Store the removed elements as the previous value and the added ones as the new value
+			List<Object> removedElements = new ArrayList<Object>(diff.getRemoved().size());
+			for (Object element : diff.getRemoved()) {
+				removedElements.add(flattenCollectionElement(element));
 			}
-		} else if (collection != null) {
-			//TODO Handle persistent maps
-			PersistentMap persistentMap = (PersistentMap) collection;
-			Object owningObject = persistentMap.getOwner();
-			if (isMonitored(owningObject)) {
-				log.error("PersistentMaps not supported: Can't create log entry for updated map:" + persistentMap.getRole()
-				        + " in class:" + persistentMap.getOwner().getClass());
+			List<Object> addedElements = new ArrayList<Object>(diff.getAdded().size());
+			for (Object element : diff.getAdded()) {
+				addedElements.add(flattenCollectionElement(element));
 			}
+			
+			String role = persistentColl.getRole();
+			String propertyName = role.substring(role.lastIndexOf('.') + 1);
+			Map<String, Object[]> propertyChangesMap = new HashMap<String, Object[]>();
+			propertyChangesMap.put(propertyName, new Object[] { removedElements, addedElements });
+			addChanges((OpenmrsObject) owningObject, propertyChangesMap);
+			//Removed elements are recorded as the previous value of the collection, those that get
+			//deleted as orphans also get DELETED logs of their own since onDelete is called for them
+			getCaptureContext().getUpdates().add((OpenmrsObject) owningObject);
+		}
+	}
+	
+	/**
+	 * Computes the elements that were added to and removed from the specified collection since it
+	 * was loaded or last flushed
+	 * 
+	 * @param persistentColl the collection
+	 * @return the diff or null if the collection type is not supported
+	 */
+	@SuppressWarnings("rawtypes")
+	private CollectionDiff getCollectionDiff(PersistentCollection persistentColl) {
+		CollectionMetadata metadata = getSessionFactory().getCollectionMetadata(persistentColl.getRole());
+		boolean elementsByIdentity = metadata != null && metadata.getElementType().isEntityType();
+		Serializable snapshot = persistentColl.getStoredSnapshot();
+		if (persistentColl instanceof Map) {
+			boolean keysByIdentity = metadata != null && metadata.getIndexType().isEntityType();
+			return CollectionDiff.diffMaps((Map) snapshot, (Map) persistentColl, keysByIdentity, elementsByIdentity);
+		} else if (persistentColl instanceof Collection) {
+			//The snapshots of sets and id bags are maps whose values are the elements
+			Collection previous = (snapshot instanceof Map) ? ((Map) snapshot).values() : (Collection) snapshot;
+			return CollectionDiff.diff(previous, (Collection) persistentColl, elementsByIdentity);
+		}
+		
+		//TODO Handle arrays
+		return null;
+	}
+	
+	/**
+	 * Flattens an element of a collection or an entry of a map
+	 * 
+	 * @param element the element to flatten
+	 * @return the flattened element
+	 */
+	private Object flattenCollectionElement(Object element) {
+		if (element instanceof Map.Entry) {
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+			return EntityDiffPlan.flattenElement(entry.getKey()) + "=" + EntityDiffPlan.flattenElement(entry.getValue());
 		}
+		
+		return EntityDiffPlan.flattenElement(element);
+	}
+	
+	/**
+	 * Adds the specified property changes to those already captured for the specified object in
+	 * the current transaction
+	 * 
+	 * @param openmrsObject the changed object
+	 * @param propertyChangesMap the changed properties mapped to their previous and new values
+	 */
+	private void addChanges(OpenmrsObject openmrsObject, Map<String, Object[]> propertyChangesMap) {
+		Map<String, Map<String, Object[]>> objectChangesMap = getCaptureContext().getObjectChangesMap();
+		Map<String, Object[]> existingChanges = objectChangesMap.get(openmrsObject.getUuid());
+		if (existingChanges == null)
+			objectChangesMap.put(openmrsObject.getUuid(), propertyChangesMap);
+		else
+			existingChanges.putAll(propertyChangesMap);
 	}
 	
 	/**
@@ -310,27 +364,41 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 	@Override
 	public int[] findDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
 	                       String[] propertyNames, Type[] types) {
-		if (isMonitored(entity)) {
-			if (entityCollectionsMap.get().get(entity) == null) {
-				//This is the first time we are trying to find collection elements for this object
-				if (log.isDebugEnabled())
-					log.debug("Finding collections for object:" + entity.getClass() + " #" + id);
-				
-				for (int i = 0; i < propertyNames.length; i++) {
-					if (types[i].isCollectionType()) {
-						Object coll = currentState[i];
-						if (coll != null && Collection.class.isAssignableFrom(coll.getClass())) {
-							Collection<?> collection = (Collection<?>) coll;
-							if (!collection.isEmpty()) {
-								if (entityCollectionsMap.get().get(entity) == null) {
-									entityCollectionsMap.get().put(entity, new ArrayList<Collection<?>>());
-								}
+		//Only the first time we are trying to find collection elements for this object
+		if (isMonitored(entity) && getCaptureContext().getIndexedOwners().add(entity)) {
+			if (log.isDebugEnabled())
+				log.debug("Finding collections for object:" + entity.getClass() + " #" + id);
+			
+			Map<Object, List<OpenmrsObject>> elementOwnersMap = getCaptureContext().getElementOwnersMap();
+			for (int i = 0; i < propertyNames.length; i++) {
+				if (types[i].isCollectionType()) {
+					Object coll = currentState[i];
+					if (coll != null && Collection.class.isAssignableFrom(coll.getClass())) {
+						//Don't load lazy collections that were never initialized just to index their elements
+						if (coll instanceof PersistentCollection && !((PersistentCollection) coll).wasInitialized())
+							continue;
+						
+						for (Object element : (Collection<?>) coll) {
+							//The flushed entities are the implementations, an uninitialized proxy
+							//can't have been modified so there is no need to index it
+							if (element instanceof HibernateProxy) {
+								LazyInitializer initializer = ((HibernateProxy) element).getHibernateLazyInitializer();
+								if (initializer.isUninitialized())
+									continue;
 								
-								entityCollectionsMap.get().get(entity).add(collection);
+								element = initializer.getImplementation();
 							}
-						} else {
-							//TODO handle maps too because hibernate treats maps to be of CollectionType
+							
+							List<OpenmrsObject> owners = elementOwnersMap.get(element);
+							if (owners == null) {
+								owners = new ArrayList<OpenmrsObject>(1);
+								elementOwnersMap.put(element, owners);
+							}
+							
+							owners.add((OpenmrsObject) entity);
 						}
+					} else {
+						//TODO handle maps too because hibernate treats maps to be of CollectionType
 					}
 				}
 			}
@@ -344,82 +412,82 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 	 */
 	@Override
 	public void afterTransactionCompletion(Transaction tx) {
-		//TODO This should typically happen in a separate thread for performance purposes
+		CaptureContext context = captureContext.get();
+		//No monitored object was ever intercepted in this thread
+		if (context == null)
+			return;
+		
 		try {
-			if (disableInterceptor.get() == null && tx.wasCommitted()) {
-				if (inserts.get().isEmpty() && updates.get().isEmpty() && deletes.get().isEmpty()
-				        && otherUpdates.get().isEmpty())
+			if (!context.isInterceptorDisabled() && tx.wasCommitted()) {
+				if (context.hasNoChanges())
 					return;
 				
 				try {
 					User user = Context.getAuthenticatedUser();
+					Integer userId = (user != null) ? user.getUserId() : null;
 					Date date = new Date();
 					//TODO handle daemon or un authenticated operations
+					List<AuditLogEvent> events = new ArrayList<AuditLogEvent>();
 					
-					for (OpenmrsObject insert : inserts.get()) {
-						AuditLog auditLog = new AuditLog(insert.getClass().getName(), insert.getUuid(), Action.CREATED,
-						        user, date);
-						auditLog.setUuid(UUID.randomUUID().toString());
-						getAuditLogDao().save(auditLog);
+					for (OpenmrsObject insert : context.getInserts()) {
+						events.add(new AuditLogEvent(insert.getClass().getName(), insert.getUuid(), Action.CREATED, userId,
+						        date, null));
 					}
 					
-					for (OpenmrsObject delete : deletes.get()) {
-						AuditLog auditLog = new AuditLog(delete.getClass().getName(), delete.getUuid(), Action.DELETED,
-						        user, date);
-						auditLog.setUuid(UUID.randomUUID().toString());
-						getAuditLogDao().save(auditLog);
+					for (OpenmrsObject delete : context.getDeletes()) {
+						events.add(new AuditLogEvent(delete.getClass().getName(), delete.getUuid(), Action.DELETED, userId,
+						        date, null));
 					}
 					
-					//If we have any entities in the session that have child collections and there were some updates, 
-					//check all collection items to find dirty ones so that we can mark the the owners as dirty too
+					//If any of the updated objects are items in the child collections of entities in the session, 
+					//look up their owners so that we can mark them as dirty too
 					//I.e if a ConceptName/Mapping/Description was edited, mark the the Concept as dirty too
-					if (CollectionUtils.isNotEmpty(updates.get()) || CollectionUtils.isNotEmpty(otherUpdates.get())) {
-						for (Map.Entry<Object, List<Collection<?>>> entry : entityCollectionsMap.get().entrySet()) {
-							for (Collection<?> coll : entry.getValue()) {
-								for (Object obj : coll) {
-									//If a collection item was updated and no other update had been made on the owner
-									if (updates.get().contains(obj) || otherUpdates.get().contains(obj)) {
-										if (updates.get().contains(entry.getKey())
-										        || otherUpdates.get().contains(entry.getKey())) {
-											if (log.isDebugEnabled())
-												log.debug("There is already an  auditlog for:" + entry.getKey().getClass()
-												        + " - " + entry.getKey().toString());
-											
-											//TODO otherwise associate the update log for the collection item to that of the owner
-										} else {
-											OpenmrsObject o = (OpenmrsObject) entry.getKey();
-											if (log.isDebugEnabled())
-												log.debug("Creating log entry for edited object with uuid:" + o.getUuid()
-												        + " of type:" + o.getClass().getName()
-												        + " due to an update for a item in a child collection");
-											updates.get().add(o);
-										}
-									}
+					if (!context.getElementOwnersMap().isEmpty()) {
+						List<OpenmrsObject> updatedItems = new ArrayList<OpenmrsObject>(context.getUpdates());
+						updatedItems.addAll(context.getOtherUpdates());
+						for (OpenmrsObject updatedItem : updatedItems) {
+							List<OpenmrsObject> owners = context.getElementOwnersMap().get(updatedItem);
+							if (owners == null)
+								continue;
+							
+							for (OpenmrsObject owner : owners) {
+								//If no other update had been made on the owner
+								if (context.getUpdates().contains(owner) || context.getOtherUpdates().contains(owner)) {
+									if (log.isDebugEnabled())
+										log.debug("There is already an  auditlog for:" + owner.getClass() + " - "
+										        + owner.toString());
+									
+									//TODO otherwise associate the update log for the collection item to that of the owner
+								} else {
+									if (log.isDebugEnabled())
+										log.debug("Creating log entry for edited object with uuid:" + owner.getUuid()
+										        + " of type:" + owner.getClass().getName()
+										        + " due to an update for a item in a child collection");
+									context.getUpdates().add(owner);
 								}
 							}
 						}
 					}
 					
-					updates.get().addAll(otherUpdates.get());
+					context.getUpdates().addAll(context.getOtherUpdates());
 					
-					for (OpenmrsObject update : updates.get()) {
-						AuditLog auditLog = new AuditLog(update.getClass().getName(), update.getUuid(), Action.UPDATED,
-						        user, date);
-						auditLog.setUuid(UUID.randomUUID().toString());
-						Map<String, Object[]> propertyValuesMap = objectChangesMap.get().get(update.getUuid());
-						if (propertyValuesMap != null) {
-							auditLog.setChangesXml(AuditLogUtil.generateChangesXml(propertyValuesMap));
-						}
-						
-						getAuditLogDao().save(auditLog);
+					for (OpenmrsObject update : context.getUpdates()) {
+						events.add(new AuditLogEvent(update.getClass().getName(), update.getUuid(), Action.UPDATED, userId,
+						        date, context.getObjectChangesMap().get(update.getUuid())));
 					}
 					
-					//Ensures we don't step through the interceptor methods again when saving the auditLog
-					disableInterceptor.set(true);
-					
-					//at this point, the transaction is already committed, 
-					//so we need to call commit() again to sync to the DB
-					tx.commit();
+					//Whatever the background writer threads can't take has to be written before we return
+					List<AuditLogEvent> unqueuedEvents = getAuditLogWriter().enqueue(events);
+					if (!unqueuedEvents.isEmpty()) {
+						getAuditLogWriter().write(unqueuedEvents);
+						
+						//Ensures we don't step through the interceptor methods again when saving the auditLog
+						context.setInterceptorDisabled(true);
+						
+						//at this point, the transaction is already committed, 
+						//so we need to call commit() again to sync to the DB
+						tx.commit();
+					}
 				}
 				catch (Exception e) {
 					//error should not bubble out of the intercepter
@@ -428,68 +496,45 @@ public class HibernateAuditLogInterceptor extends EmptyInterceptor implements Ap
 			}
 		}
 		finally {
-			//cleanup
-			inserts.remove();
-			updates.remove();
-			deletes.remove();
-			otherUpdates.remove();
-			objectChangesMap.remove();
-			entityCollectionsMap.remove();
-			if (disableInterceptor.get() != null)
-				disableInterceptor.remove();
+			//cleanup, the context itself is kept for the next transaction of this thread
+			context.clear();
 		}
 	}
 	
 	/**
-	 * Checks if specified object is monitored, it actually delegates to
-	 * {@link #isMonitoredInternal(Class)} Its role is to check if the monitored classes are not yet
-	 * cached so that it turns off hibernate auto flushing in case we have new objects without ids
-	 * when the Global Property {@link AuditLogConstants#GP_MONITORED_CLASSES} is getting read
+	 * Checks if specified object is monitored
 	 * 
 	 * @param obj the object the check
 	 * @return true if the object is a monitored one otherwise false
 	 */
 	private boolean isMonitored(Object obj) {
-		if (!AuditLogUtil.areMonitoredClassnamesCached() || !AuditLogUtil.isMonitoringStrategyCached()) {
-			Session session = getSessionFactory().getCurrentSession();
-			FlushMode originalFlushMode = session.getFlushMode();
-			session.setFlushMode(FlushMode.MANUAL);
-			try {
-				return isMonitoredInternal(obj.getClass());
-			}
-			finally {
-				//reset
-				session.setFlushMode(originalFlushMode);
-			}
-		}
-		
-		return isMonitoredInternal(obj.getClass());
+		return getMonitoringVerdict(obj).isMonitored();
 	}
 	
 	/**
-	 * Checks if specified object is among the ones that are monitored and is an
-	 * {@link OpenmrsObject}
+	 * Gets the monitoring verdict for the specified object
 	 * 
-	 * @param clazz the class to check against
-	 * @return true if it is monitored otherwise false
+	 * @param obj the object the check
+	 * @return the monitoring verdict
 	 */
-	private boolean isMonitoredInternal(Class<?> clazz) {
-		if (!OpenmrsObject.class.isAssignableFrom(clazz) || AuditLogUtil.getMonitoringStrategy() == null
-		        || AuditLogUtil.getMonitoringStrategy() == MonitoringStrategy.NONE)
-			return false;
-		
-		if (AuditLogUtil.getMonitoringStrategy() == MonitoringStrategy.ALL)
-			return true;
-		
-		if (OpenmrsUtil.collectionContains(AuditLogUtil.getImplicitlyMonitoredClasses(), clazz))
-			return true;
-		
-		if (AuditLogUtil.getMonitoringStrategy() == MonitoringStrategy.NONE_EXCEPT) {
-			return OpenmrsUtil.collectionContains(AuditLogUtil.getMonitoredClasses(), clazz);
+	private MonitoringVerdict getMonitoringVerdict(Object obj) {
+		return AuditLogUtil.getMonitoringVerdict(obj.getClass());
+	}
+	
+	/**
+	 * Gets the {@link CaptureContext} of the current thread, creating it if this is the first time a
+	 * monitored object is intercepted in it
+	 * 
+	 * @return the capture context
+	 */
+	private CaptureContext getCaptureContext() {
+		CaptureContext context = captureContext.get();
+		if (context == null) {
+			context = new CaptureContext();
+			captureContext.set(context);
 		}
 		
-		//Strategy is ALL_EXCEPT
-		return !OpenmrsUtil.collectionContains(AuditLogUtil.getUnMonitoredClasses(), clazz);
+		return context;
 	}
 	
 	/**
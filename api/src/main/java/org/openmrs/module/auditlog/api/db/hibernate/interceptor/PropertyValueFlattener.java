@@ -0,0 +1,30 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.api.db.hibernate.interceptor;
+
+import org.openmrs.module.auditlog.api.db.EntityReference;
+
+/**
+ * Converts the value of a property of a monitored object to what gets stored in the changes of an
+ * audit log
+ */
+interface PropertyValueFlattener {
+	
+	/**
+	 * @param value the property value to flatten, can be null
+	 * @return the flattened value, either a string or an {@link EntityReference} for an associated
+	 *         object that isn't loaded, an empty string if there is nothing to store
+	 */
+	public Object flatten(Object value);
+}
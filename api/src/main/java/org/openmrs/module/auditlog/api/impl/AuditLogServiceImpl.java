@@ -14,16 +14,27 @@
 package org.openmrs.module.auditlog.api.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.PersonName;
+import org.openmrs.User;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.auditlog.AuditLog;
 import org.openmrs.module.auditlog.AuditLog.Action;
+import org.openmrs.module.auditlog.AuditLogSummary;
+import org.openmrs.module.auditlog.PropertyChange;
 import org.openmrs.module.auditlog.api.AuditLogService;
 import org.openmrs.module.auditlog.api.db.AuditLogDAO;
 import org.openmrs.module.auditlog.util.AuditLogConstants;
@@ -54,13 +65,148 @@ public class AuditLogServiceImpl extends BaseOpenmrsService implements AuditLogS
 	 * @see org.openmrs.module.auditlog.AuditLogService#getAuditLogs(List, List, java.util.Date,
 	 *      java.util.Date, java.lang.Integer, java.lang.Integer)
 	 */
-	@SuppressWarnings({ "rawtypes" })
 	@Override
 	public List<AuditLog> getAuditLogs(List<Class<? extends OpenmrsObject>> clazzes, List<Action> actions, Date startDate,
 	                                   Date endDate, Integer start, Integer length) {
+		return getAuditLogs(clazzes, actions, null, startDate, endDate, start, length);
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.AuditLogService#getAuditLogs(List, List, List,
+	 *      java.util.Date, java.util.Date, java.lang.Integer, java.lang.Integer)
+	 */
+	@Override
+	public List<AuditLog> getAuditLogs(List<Class<? extends OpenmrsObject>> clazzes, List<Action> actions,
+	                                   List<User> users, Date startDate, Date endDate, Integer start, Integer length) {
+		validateStartDate(startDate);
+		
+		return dao.getAuditLogs(getClassNamesToMatch(clazzes), actions, users, startDate, endDate, start, length);
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.AuditLogService#getAuditLogCount(List, List, List,
+	 *      java.util.Date, java.util.Date)
+	 */
+	@Override
+	public int getAuditLogCount(List<Class<? extends OpenmrsObject>> clazzes, List<Action> actions, List<User> users,
+	                            Date startDate, Date endDate) {
+		validateStartDate(startDate);
+		
+		return dao.getAuditLogCount(getClassNamesToMatch(clazzes), actions, users, startDate, endDate);
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.AuditLogService#getAuditLogsAfter(List, List, List,
+	 *      java.util.Date, java.util.Date, java.util.Date, java.lang.Integer, int)
+	 */
+	@Override
+	public List<AuditLog> getAuditLogsAfter(List<Class<? extends OpenmrsObject>> clazzes, List<Action> actions,
+	                                        List<User> users, Date startDate, Date endDate, Date lastDateCreated,
+	                                        Integer lastAuditLogId, int length) {
+		validateStartDate(startDate);
+		
+		return dao.getAuditLogsAfter(getClassNamesToMatch(clazzes), actions, users, startDate, endDate, lastDateCreated,
+		    lastAuditLogId, length);
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.AuditLogService#getAuditLogSummaries(List, List, List,
+	 *      java.util.Date, java.util.Date, java.util.Date, java.lang.Integer, java.lang.Integer,
+	 *      java.lang.Integer)
+	 */
+	@Override
+	public List<AuditLogSummary> getAuditLogSummaries(List<Class<? extends OpenmrsObject>> clazzes, List<Action> actions,
+	                                                  List<User> users, Date startDate, Date endDate,
+	                                                  Date lastDateCreated, Integer lastAuditLogId, Integer start,
+	                                                  Integer length) {
+		validateStartDate(startDate);
+		
+		return dao.getAuditLogSummaries(getClassNamesToMatch(clazzes), actions, users, startDate, endDate,
+		    lastDateCreated, lastAuditLogId, start, length);
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.AuditLogService#getAuditLogsForObject(java.lang.Class,
+	 *      java.lang.String, org.openmrs.module.auditlog.AuditLog, int)
+	 */
+	@Override
+	public List<AuditLog> getAuditLogsForObject(Class<? extends OpenmrsObject> clazz, String uuid,
+	                                            AuditLog lastAuditLog, int length) {
+		Map<Class<? extends OpenmrsObject>, List<String>> childUuids = dao.getChildUuids(clazz, uuid);
+		Set<String> objectUuids = new LinkedHashSet<String>();
+		objectUuids.add(uuid);
+		for (List<String> uuids : childUuids.values()) {
+			objectUuids.addAll(uuids);
+		}
+		
+		List<Class<? extends OpenmrsObject>> clazzes = new ArrayList<Class<? extends OpenmrsObject>>(childUuids.keySet());
+		clazzes.add(clazz);
+		Set<String> classnames = new LinkedHashSet<String>(getClassNamesToMatch(clazzes));
+		//The logs of a patient include those of its person
+		for (Class<?> superclass = clazz.getSuperclass(); superclass != null
+		        && OpenmrsObject.class.isAssignableFrom(superclass); superclass = superclass.getSuperclass()) {
+			classnames.add(superclass.getName());
+		}
+		Date lastDateCreated = (lastAuditLog != null) ? lastAuditLog.getDateCreated() : null;
+		Integer lastAuditLogId = (lastAuditLog != null) ? lastAuditLog.getAuditLogId() : null;
+		
+		return dao.getAuditLogsForObjects(new ArrayList<String>(classnames), objectUuids, lastDateCreated,
+		    lastAuditLogId, length);
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.AuditLogService#getUserFullNames(java.util.Collection)
+	 */
+	@Override
+	public Map<Integer, String> getUserFullNames(Collection<Integer> userIds) {
+		Map<Integer, String> fullNames = new HashMap<Integer, String>();
+		Set<Integer> idsToLookUp = new HashSet<Integer>();
+		for (Integer userId : userIds) {
+			if (userId != null)
+				idsToLookUp.add(userId);
+		}
+		
+		if (!idsToLookUp.isEmpty()) {
+			for (Map.Entry<Integer, PersonName> entry : dao.getPersonNames(idsToLookUp).entrySet()) {
+				fullNames.put(entry.getKey(), entry.getValue().getFullName());
+			}
+		}
+		
+		return fullNames;
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.AuditLogService#getAuditLogsByProperty(List, String,
+	 *      java.util.Date, java.util.Date, java.lang.Integer, java.lang.Integer)
+	 */
+	@Override
+	public List<AuditLog> getAuditLogsByProperty(List<Class<? extends OpenmrsObject>> clazzes, String propertyName,
+	                                             Date startDate, Date endDate, Integer start, Integer length) {
+		validateStartDate(startDate);
+		
+		return dao.getAuditLogsByProperty(getClassNamesToMatch(clazzes), propertyName, startDate, endDate, start,
+		    length);
+	}
+	
+	/**
+	 * Rejects start dates that are in the future
+	 * 
+	 * @param startDate the start date to validate
+	 */
+	private void validateStartDate(Date startDate) {
 		if (OpenmrsUtil.compareWithNullAsEarliest(startDate, new Date()) > 0)
 			throw new APIException(Context.getMessageSourceService().getMessage(
 			    AuditLogConstants.MODULE_ID + ".exception.startDateInFuture"));
+	}
+	
+	/**
+	 * Gets the names of the specified classes and their persistent subclasses
+	 * 
+	 * @param clazzes the classes
+	 * @return the class names or null if the specified classes are null
+	 */
+	@SuppressWarnings({ "rawtypes" })
+	private List<String> getClassNamesToMatch(List<Class<? extends OpenmrsObject>> clazzes) {
 		List<String> classesToMatch = null;
 		if (clazzes != null) {
 			classesToMatch = new ArrayList<String>();
@@ -74,7 +220,7 @@ public class AuditLogServiceImpl extends BaseOpenmrsService implements AuditLogS
 			}
 		}
 		
-		return dao.getAuditLogs(classesToMatch, actions, startDate, endDate, start, length);
+		return classesToMatch;
 	}
 	
 	/**
@@ -97,4 +243,77 @@ public class AuditLogServiceImpl extends BaseOpenmrsService implements AuditLogS
 		
 		return dao.getObjectByUuid(clazz, uuid);
 	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.AuditLogService#getObjectsByUuidOrId(java.lang.Class,
+	 *      java.util.Collection, java.util.Collection)
+	 */
+	@Override
+	public <T> List<T> getObjectsByUuidOrId(Class<T> clazz, Collection<String> uuids, Collection<Integer> ids) {
+		return dao.getObjectsByUuidOrId(clazz, uuids, ids);
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.AuditLogService#convertChangesXml(java.lang.Integer, int)
+	 */
+	@Override
+	public Integer convertChangesXml(Integer afterAuditLogId, int batchSize) {
+		List<AuditLog> auditLogs = dao.getAuditLogsWithChangesXml(afterAuditLogId, batchSize);
+		for (AuditLog auditLog : auditLogs) {
+			//The encoder expects the previous value at index 0 and the new one at index 1
+			Map<String, Object[]> propertyChangesMap = new LinkedHashMap<String, Object[]>();
+			for (Map.Entry<String, String[]> entry : auditLog.getChanges().entrySet()) {
+				propertyChangesMap.put(entry.getKey(), new Object[] { entry.getValue()[1], entry.getValue()[0] });
+			}
+			auditLog.setChangesXml(AuditLogUtil.encodeChanges(propertyChangesMap));
+			if (!auditLog.hasStoredChangeCount())
+				auditLog.setChangedProperties(propertyChangesMap.keySet());
+		}
+		
+		return getLastAuditLogId(auditLogs);
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.AuditLogService#backfillChangeCounts(java.lang.Integer, int)
+	 */
+	@Override
+	public Integer backfillChangeCounts(Integer afterAuditLogId, int batchSize) {
+		List<AuditLog> auditLogs = dao.getAuditLogsWithoutChangeCount(afterAuditLogId, batchSize);
+		for (AuditLog auditLog : auditLogs) {
+			auditLog.setChangedProperties(auditLog.getChanges().keySet());
+		}
+		
+		return getLastAuditLogId(auditLogs);
+	}
+	
+	/**
+	 * @see org.openmrs.module.auditlog.api.AuditLogService#backfillPropertyChanges(java.lang.Integer,
+	 *      int)
+	 */
+	@Override
+	public Integer backfillPropertyChanges(Integer afterAuditLogId, int batchSize) {
+		List<AuditLog> auditLogs = dao.getAuditLogsWithoutPropertyChanges(afterAuditLogId, batchSize);
+		for (AuditLog auditLog : auditLogs) {
+			//The changes hold the new value at index 0 and the previous one at index 1
+			for (Map.Entry<String, String[]> entry : auditLog.getChanges().entrySet()) {
+				String previousValue = entry.getValue()[1];
+				String newValue = entry.getValue()[0];
+				//Skipped like by the writer since there is no value to look up
+				if (previousValue != null || newValue != null) {
+					auditLog.getPropertyChanges().add(
+					    new PropertyChange(auditLog.getClassName(), entry.getKey(), previousValue, newValue));
+				}
+			}
+		}
+		
+		return getLastAuditLogId(auditLogs);
+	}
+	
+	/**
+	 * @param auditLogs audit logs ordered by auditLogId
+	 * @return the auditLogId of the last audit log or null if the list is empty
+	 */
+	private Integer getLastAuditLogId(List<AuditLog> auditLogs) {
+		return auditLogs.isEmpty() ? null : auditLogs.get(auditLogs.size() - 1).getAuditLogId();
+	}
 }
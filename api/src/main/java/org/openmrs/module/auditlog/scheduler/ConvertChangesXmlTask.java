@@ -0,0 +1,128 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.scheduler;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.auditlog.api.AuditLogService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * Converts the changes of existing audit logs from the xml format used by earlier versions of the
+ * module to the compact format and then stores the change counts of the logs that don't have them
+ * yet, each batch is processed in its own transaction so that the task can be stopped and resumed
+ * on large tables. The batch size can be set with the {@link #BATCH_SIZE} property of the task
+ * definition.
+ */
+public class ConvertChangesXmlTask extends AbstractTask {
+	
+	private static final Log log = LogFactory.getLog(ConvertChangesXmlTask.class);
+	
+	public static final String BATCH_SIZE = "batchSize";
+	
+	private static final int DEFAULT_BATCH_SIZE = 500;
+	
+	private volatile boolean shutdown = false;
+	
+	/**
+	 * @see org.openmrs.scheduler.tasks.AbstractTask#execute()
+	 */
+	@Override
+	public void execute() {
+		if (isExecuting())
+			return;
+		
+		startExecuting();
+		try {
+			int batchSize = getBatchSize();
+			AuditLogService service = Context.getService(AuditLogService.class);
+			//Each batch starts after the last audit log of the previous one so that it seeks on the
+			//primary key instead of scanning the logs that were already processed
+			Integer lastAuditLogId = null;
+			while (!shutdown) {
+				Integer convertedAuditLogId = service.convertChangesXml(lastAuditLogId, batchSize);
+				Context.flushSession();
+				Context.clearSession();
+				if (convertedAuditLogId == null)
+					break;
+				
+				lastAuditLogId = convertedAuditLogId;
+			}
+			
+			if (log.isDebugEnabled())
+				log.debug("Converted the changes of the audit logs up to auditLogId:" + lastAuditLogId);
+			
+			lastAuditLogId = null;
+			while (!shutdown) {
+				Integer updatedAuditLogId = service.backfillChangeCounts(lastAuditLogId, batchSize);
+				Context.flushSession();
+				Context.clearSession();
+				if (updatedAuditLogId == null)
+					break;
+				
+				lastAuditLogId = updatedAuditLogId;
+			}
+			
+			if (log.isDebugEnabled())
+				log.debug("Stored the change counts of the audit logs up to auditLogId:" + lastAuditLogId);
+			
+			lastAuditLogId = null;
+			while (!shutdown) {
+				Integer updatedAuditLogId = service.backfillPropertyChanges(lastAuditLogId, batchSize);
+				Context.flushSession();
+				Context.clearSession();
+				if (updatedAuditLogId == null)
+					break;
+				
+				lastAuditLogId = updatedAuditLogId;
+			}
+			
+			if (log.isDebugEnabled())
+				log.debug("Stored the property changes of the audit logs up to auditLogId:" + lastAuditLogId);
+		}
+		finally {
+			stopExecuting();
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.scheduler.tasks.AbstractTask#shutdown()
+	 */
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		super.shutdown();
+	}
+	
+	private int getBatchSize() {
+		if (getTaskDefinition() != null) {
+			String batchSize = getTaskDefinition().getProperty(BATCH_SIZE);
+			if (StringUtils.isNotBlank(batchSize)) {
+				try {
+					int value = Integer.parseInt(batchSize.trim());
+					if (value > 0)
+						return value;
+				}
+				catch (NumberFormatException e) {
+					//use the default below
+				}
+				log.warn("Invalid batch size: " + batchSize + ", using the default");
+			}
+		}
+		
+		return DEFAULT_BATCH_SIZE;
+	}
+}
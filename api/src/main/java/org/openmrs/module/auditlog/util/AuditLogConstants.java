@@ -35,4 +35,16 @@ public final class AuditLogConstants {
 	
 	//Classes names for the objects not to monitor when the Monitoring strategy is set to ALL_EXCEPT
 	public static final String GP_UN_MONITORED_CLASSES = MODULE_ID + ".unMonitoredClasses";
+	
+	//Specifies if audit logs are written by background threads instead of the thread committing the transaction
+	public static final String GP_ASYNC_WRITES_ENABLED = MODULE_ID + ".asyncWritesEnabled";
+	
+	//The maximum number of audit log events waiting to be written by the background threads
+	public static final String GP_WRITER_QUEUE_SIZE = MODULE_ID + ".writerQueueSize";
+	
+	//The number of background threads that write audit logs
+	public static final String GP_WRITER_THREAD_COUNT = MODULE_ID + ".writerThreadCount";
+	
+	//The minimum length in characters of the changes of an audit log for them to be stored compressed
+	public static final String GP_COMPRESSION_THRESHOLD = MODULE_ID + ".compressionThreshold";
 }
@@ -13,42 +13,43 @@
  */
 package org.openmrs.module.auditlog.util;
 
-import java.beans.PropertyDescriptor;
 import java.io.StringReader;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.EntityMode;
+import org.hibernate.HibernateException;
 import org.hibernate.SessionFactory;
-import org.hibernate.engine.SessionFactoryImplementor;
 import org.hibernate.metadata.ClassMetadata;
 import org.hibernate.type.CollectionType;
-import org.hibernate.type.OneToOneType;
+import org.hibernate.type.MapType;
 import org.hibernate.type.Type;
 import org.openmrs.Concept;
 import org.openmrs.GlobalProperty;
 import org.openmrs.Obs;
 import org.openmrs.OpenmrsMetadata;
 import org.openmrs.OpenmrsObject;
-import org.openmrs.Patient;
 import org.openmrs.Person;
+import org.openmrs.api.APIException;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.GlobalPropertyListener;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.auditlog.MonitoringStrategy;
 import org.openmrs.module.auditlog.api.AuditLogService;
-import org.springframework.beans.BeanUtils;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -74,64 +75,230 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 	
 	public static final String ATTRIBUTE_NAME = "name";
 	
-	private static Set<Class<?>> monitoredClassnamesCache;
+	private static final char COLLECTION_ELEMENT_SEPARATOR = ',';
 	
-	private static MonitoringStrategy monitoringStrategyCache;
+	private static final char ESCAPE_CHARACTER = '\\';
 	
-	private static Set<Class<?>> unMonitoredClassnamesCache;
-	
-	private static Set<Class<?>> implicitlyMonitoredClassnamesCache;
+	//The current snapshot of the monitoring settings, it is replaced as a whole whenever they change
+	private static final AtomicReference<MonitoringConfiguration> configuration = new AtomicReference<MonitoringConfiguration>();
 	
 	private static ApplicationContext applicationContext;
 	
 	private static SessionFactory sessionFactory;
 	
+	private static volatile MappedClassIndex mappedClassIndex;
+	
 	@Override
 	public void setApplicationContext(ApplicationContext appContext) throws BeansException {
 		applicationContext = appContext;
+		//the context is getting refreshed, we need to pick up the new session factory and its mappings,
+		//the monitoring settings are rebuilt from them by the activator once the refresh is complete
+		sessionFactory = null;
+		mappedClassIndex = null;
 	}
 	
 	/**
 	 * @return the monitoringStrategy
 	 */
 	public static MonitoringStrategy getMonitoringStrategy() {
-		if (monitoringStrategyCache == null) {
-			GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(
-			    AuditLogConstants.GP_MONITORING_STRATEGY);
-			if (gp != null) {
-				if (StringUtils.isNotBlank(gp.getPropertyValue())) {
-					String value = gp.getPropertyValue();
-					monitoringStrategyCache = MonitoringStrategy.valueOf(value);
-				}
-			}
+		return getConfiguration().getStrategy();
+	}
+	
+	/**
+	 * Loads the monitoring settings from the global properties and computes the monitoring verdicts
+	 * of all the mapped classes, this is called when the module is started and when the application
+	 * context is refreshed so that the intercepted operations never have to read them in the middle
+	 * of a flush
+	 */
+	public static synchronized void loadMonitoringConfiguration() {
+		configuration.set(loadConfiguration());
+	}
+	
+	/**
+	 * Gets the monitoring verdict for the specified class, the verdicts for all mapped classes are
+	 * computed once and kept until any of the monitoring global properties is changed so this is a
+	 * single map lookup in most cases, for classes that are not mapped e.g. proxies, the verdict of
+	 * the nearest mapped superclass is returned
+	 * 
+	 * @param clazz the class to check
+	 * @return the monitoring verdict
+	 * @should return monitored for explicitly monitored classes and their subclasses
+	 * @should return implicitly monitored for types owned by monitored classes
+	 * @should return not monitored for classes that are not monitored
+	 * @should return the verdict of the nearest mapped superclass for unmapped classes
+	 */
+	public static MonitoringVerdict getMonitoringVerdict(Class<?> clazz) {
+		return getConfiguration().getVerdict(clazz);
+	}
+	
+	/**
+	 * Gets the current snapshot of the monitoring settings, it is built when the module is started
+	 * and replaced by the global property listener whenever the settings change so that it never
+	 * has to be read while the interceptor is in the middle of a flush. It only gets loaded here
+	 * when it is used before the module is started e.g in unit tests.
+	 * 
+	 * @return the monitoring configuration
+	 */
+	private static MonitoringConfiguration getConfiguration() {
+		MonitoringConfiguration current = configuration.get();
+		if (current != null)
+			return current;
+		
+		MonitoringConfiguration loaded = loadConfiguration();
+		//If another thread set it in the mean time, we leave its snapshot in place
+		if (!configuration.compareAndSet(null, loaded))
+			return configuration.get();
+		
+		return loaded;
+	}
+	
+	/**
+	 * Replaces the current snapshot of the monitoring settings with one where the value of the
+	 * specified global property is updated, the other settings are taken from the current snapshot
+	 * so that no global properties have to be read from the database. Updates are serialized so that
+	 * each one is applied on top of the previous one.
+	 * 
+	 * @param gpName the name of the global property that changed
+	 * @param value the new value of the global property, null if it was deleted
+	 */
+	private static synchronized void updateConfiguration(String gpName, String value) {
+		MonitoringConfiguration current = configuration.get();
+		if (current == null) {
+			//The other settings have never been loaded, read them all including the changed one
+			configuration.set(loadConfiguration());
+			return;
 		}
 		
-		//default
-		if (monitoringStrategyCache == null)
-			monitoringStrategyCache = MonitoringStrategy.NONE;
+		try {
+			MonitoringStrategy strategy = current.getStrategy();
+			Set<Class<?>> monitoredClasses = current.getMonitoredClasses();
+			Set<Class<?>> unMonitoredClasses = current.getUnMonitoredClasses();
+			if (AuditLogConstants.GP_MONITORING_STRATEGY.equals(gpName))
+				strategy = parseMonitoringStrategy(value);
+			else if (AuditLogConstants.GP_MONITORED_CLASSES.equals(gpName))
+				monitoredClasses = loadClasses(value);
+			else if (AuditLogConstants.GP_UN_MONITORED_CLASSES.equals(gpName))
+				unMonitoredClasses = loadClasses(value);
+			
+			configuration.set(createConfiguration(strategy, monitoredClasses, unMonitoredClasses));
+		}
+		catch (Exception e) {
+			log.error("Failed to update the monitoring settings, keeping the previous ones", e);
+		}
+	}
+	
+	/**
+	 * Creates a snapshot of the monitoring settings from the global properties
+	 * 
+	 * @return the monitoring configuration
+	 */
+	private static MonitoringConfiguration loadConfiguration() {
+		AdministrationService as = Context.getAdministrationService();
+		MonitoringStrategy strategy = parseMonitoringStrategy(as.getGlobalProperty(AuditLogConstants.GP_MONITORING_STRATEGY));
+		Set<Class<?>> monitoredClasses = loadClasses(as.getGlobalProperty(AuditLogConstants.GP_MONITORED_CLASSES));
+		Set<Class<?>> unMonitoredClasses = loadClasses(as.getGlobalProperty(AuditLogConstants.GP_UN_MONITORED_CLASSES));
 		
-		return monitoringStrategyCache;
+		return createConfiguration(strategy, monitoredClasses, unMonitoredClasses);
 	}
 	
 	/**
-	 * @return
+	 * @param value the value of the monitoring strategy global property
+	 * @return the matching {@link MonitoringStrategy}, defaults to NONE if the value is blank
 	 */
-	public static boolean isMonitoringStrategyCached() {
-		return monitoringStrategyCache != null;
+	private static MonitoringStrategy parseMonitoringStrategy(String value) {
+		if (StringUtils.isNotBlank(value))
+			return MonitoringStrategy.valueOf(value.trim());
+		
+		//default
+		return MonitoringStrategy.NONE;
 	}
 	
 	/**
-	 * @return
+	 * Loads the classes whose names are listed in the specified global property value along with
+	 * their subclasses
+	 * 
+	 * @param value comma separated list of class names
+	 * @return a set of classes
 	 */
-	public static boolean areMonitoredClassnamesCached() {
-		return monitoredClassnamesCache != null;
+	private static Set<Class<?>> loadClasses(String value) {
+		Set<Class<?>> classes = new HashSet<Class<?>>();
+		if (StringUtils.isNotBlank(value)) {
+			String[] classnameArray = StringUtils.split(value, ",");
+			for (String classname : classnameArray) {
+				classname = classname.trim();
+				try {
+					Class<?> clazz = Context.loadClass(classname);
+					classes.add(clazz);
+					classes.addAll(getPersistentConcreteSubclasses(clazz, null, null));
+				}
+				catch (ClassNotFoundException e) {
+					log.error("Failed to load class:" + classname);
+				}
+			}
+		}
+		
+		return classes;
 	}
 	
 	/**
-	 * @return
+	 * Creates a snapshot of the monitoring settings, the implicitly monitored classes and the
+	 * monitoring verdicts for all mapped classes are computed from the specified values
+	 * 
+	 * @param strategy the monitoring strategy
+	 * @param monitoredClasses the monitored classes including their subclasses
+	 * @param unMonitoredClasses the un monitored classes including their subclasses
+	 * @return the monitoring configuration
 	 */
-	public static boolean areUnMonitoredClassnamesCached() {
-		return unMonitoredClassnamesCache != null;
+	private static MonitoringConfiguration createConfiguration(MonitoringStrategy strategy,
+	                                                           Set<Class<?>> monitoredClasses,
+	                                                           Set<Class<?>> unMonitoredClasses) {
+		MappedClassIndex index = getMappedClassIndex();
+		Set<Class<?>> implicitlyMonitoredClasses = new HashSet<Class<?>>();
+		if (strategy == MonitoringStrategy.NONE_EXCEPT) {
+			for (Class<?> monitoredClass : monitoredClasses) {
+				addAssociationTypes(monitoredClass, monitoredClasses, implicitlyMonitoredClasses);
+				for (Class<?> subclass : index.getConcreteSubclasses(monitoredClass)) {
+					addAssociationTypes(subclass, monitoredClasses, implicitlyMonitoredClasses);
+				}
+			}
+		} else if (strategy == MonitoringStrategy.ALL_EXCEPT && unMonitoredClasses.size() > 0) {
+			//generate implicitly monitored classes so we can track them. The reason behind 
+			//this is: Say Concept is marked as monitored and strategy is set to All Except
+			//and say ConceptName is for some reason marked as un monitored we should still monitor
+			//concept names otherwise it poses inconsistencies
+			for (Class<?> mappedClass : index.getMappedClasses()) {
+				if (OpenmrsObject.class.isAssignableFrom(mappedClass))
+					addAssociationTypes(mappedClass, monitoredClasses, implicitlyMonitoredClasses);
+			}
+		}
+		
+		Map<Class<?>, MonitoringVerdict> verdicts = new HashMap<Class<?>, MonitoringVerdict>();
+		for (Class<?> mappedClass : index.getMappedClasses()) {
+			MonitoringVerdict verdict = MonitoringVerdict.NOT_MONITORED;
+			if (OpenmrsObject.class.isAssignableFrom(mappedClass) && strategy != MonitoringStrategy.NONE) {
+				if (strategy == MonitoringStrategy.ALL
+				        || (strategy == MonitoringStrategy.NONE_EXCEPT && monitoredClasses.contains(mappedClass))
+				        || (strategy == MonitoringStrategy.ALL_EXCEPT && !unMonitoredClasses.contains(mappedClass)))
+					verdict = MonitoringVerdict.MONITORED;
+				else if (implicitlyMonitoredClasses.contains(mappedClass))
+					verdict = MonitoringVerdict.IMPLICITLY_MONITORED;
+			}
+			
+			verdicts.put(mappedClass, verdict);
+		}
+		
+		return new MonitoringConfiguration(strategy, monitoredClasses, unMonitoredClasses,
+		        implicitlyMonitoredClasses, verdicts);
+	}
+	
+	private static void addAssociationTypes(Class<?> clazz, Set<Class<?>> monitoredClasses,
+	                                        Set<Class<?>> implicitlyMonitoredClasses) {
+		for (Class<?> assocType : getMappedClassIndex().getAssociationTypes(clazz)) {
+			//If this type is not explicitly marked as monitored
+			if (OpenmrsObject.class.isAssignableFrom(assocType) && !monitoredClasses.contains(assocType)) {
+				implicitlyMonitoredClasses.add(assocType);
+			}
+		}
 	}
 	
 	/**
@@ -185,6 +352,7 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 	 * @should not update any global property if the strategy is none
 	 * @should update the un monitored class names global property if the strategy is all_except
 	 * @should mark a class and its known subclasses as un monitored
+	 * @should not modify previously returned sets of monitored classes
 	 */
 	public static void stopMonitoring(Set<Class<? extends OpenmrsObject>> clazzes) {
 		if (getMonitoringStrategy() == MonitoringStrategy.NONE_EXCEPT
@@ -197,68 +365,22 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 	 * Convenience method that returns a set of monitored classes as specified by the
 	 * {@link GlobalProperty} {@link AuditLogConstants#GP_MONITORED_CLASSES}
 	 * 
-	 * @return a set of monitored classes
+	 * @return an unmodifiable set of monitored classes
 	 * @should return a set of monitored classes
 	 */
 	public static Set<Class<?>> getMonitoredClasses() {
-		if (monitoredClassnamesCache == null) {
-			monitoredClassnamesCache = new HashSet<Class<?>>();
-			GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(
-			    AuditLogConstants.GP_MONITORED_CLASSES);
-			if (gp != null && StringUtils.isNotBlank(gp.getPropertyValue())) {
-				String[] classnameArray = StringUtils.split(gp.getPropertyValue(), ",");
-				for (String classname : classnameArray) {
-					classname = classname.trim();
-					try {
-						Class<?> monitoredClass = Context.loadClass(classname);
-						monitoredClassnamesCache.add(monitoredClass);
-						Set<Class<?>> subclasses = getPersistentConcreteSubclasses(monitoredClass, null, null);
-						for (Class<?> subclass : subclasses) {
-							monitoredClassnamesCache.add(subclass);
-						}
-					}
-					catch (ClassNotFoundException e) {
-						log.error("Failed to load class:" + classname);
-					}
-				}
-			}
-		}
-		
-		return monitoredClassnamesCache;
+		return getConfiguration().getMonitoredClasses();
 	}
 	
 	/**
 	 * Convenience method that returns a set of un monitored classes as specified by the
 	 * {@link GlobalProperty} {@link AuditLogConstants#GP_UN_MONITORED_CLASSES}
 	 * 
-	 * @return a set of monitored classes
+	 * @return an unmodifiable set of un monitored classes
 	 * @should return a set of un monitored classes
 	 */
 	public static Set<Class<?>> getUnMonitoredClasses() {
-		if (unMonitoredClassnamesCache == null) {
-			unMonitoredClassnamesCache = new HashSet<Class<?>>();
-			GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(
-			    AuditLogConstants.GP_UN_MONITORED_CLASSES);
-			if (gp != null && StringUtils.isNotBlank(gp.getPropertyValue())) {
-				String[] classnameArray = StringUtils.split(gp.getPropertyValue(), ",");
-				for (String classname : classnameArray) {
-					classname = classname.trim();
-					try {
-						Class<?> unMonitoredClass = Context.loadClass(classname);
-						unMonitoredClassnamesCache.add(unMonitoredClass);
-						Set<Class<?>> subclasses = getPersistentConcreteSubclasses(unMonitoredClass, null, null);
-						for (Class<?> subclass : subclasses) {
-							unMonitoredClassnamesCache.add(subclass);
-						}
-					}
-					catch (ClassNotFoundException e) {
-						log.error("Failed to load class:" + classname);
-					}
-				}
-			}
-		}
-		
-		return unMonitoredClassnamesCache;
+		return getConfiguration().getUnMonitoredClasses();
 	}
 	
 	/**
@@ -267,45 +389,11 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 	 * i.e if Concept is marked as monitored, then ConceptName, ConceptDesctiption, ConceptMapping
 	 * etc implicitly get marked as monitored
 	 * 
-	 * @return a set of implicitly monitored classes
+	 * @return an unmodifiable set of implicitly monitored classes
 	 * @should return a set of implicitly monitored classes
 	 */
-	@SuppressWarnings("unchecked")
 	public static Set<Class<?>> getImplicitlyMonitoredClasses() {
-		if (implicitlyMonitoredClassnamesCache == null) {
-			implicitlyMonitoredClassnamesCache = new HashSet<Class<?>>();
-			if (getMonitoringStrategy() == MonitoringStrategy.NONE_EXCEPT) {
-				for (Class<?> monitoredClass : getMonitoredClasses()) {
-					addAssociationTypes(monitoredClass);
-					Set<Class<?>> subclasses = getPersistentConcreteSubclasses(monitoredClass, null, null);
-					for (Class<?> subclass : subclasses) {
-						addAssociationTypes(subclass);
-					}
-				}
-			} else if (getMonitoringStrategy() == MonitoringStrategy.ALL_EXCEPT && getUnMonitoredClasses().size() > 0) {
-				//generate implicitly monitored classes so we can track them. The reason behind 
-				//this is: Say Concept is marked as monitored and strategy is set to All Except
-				//and say ConceptName is for some reason marked as un monitored we should still monitor
-				//concept names otherwise it poses inconsistencies
-				Collection<ClassMetadata> allClassMetadata = getSessionFactory().getAllClassMetadata().values();
-				for (ClassMetadata classMetadata : allClassMetadata) {
-					Class<?> mappedClass = classMetadata.getMappedClass(EntityMode.POJO);
-					if (OpenmrsObject.class.isAssignableFrom(mappedClass))
-						addAssociationTypes(mappedClass);
-				}
-			}
-		}
-		
-		return implicitlyMonitoredClassnamesCache;
-	}
-	
-	private static void addAssociationTypes(Class<?> clazz) {
-		for (Class<?> assocType : getAssociationTypesToMonitor(clazz, null)) {
-			//If this type is not explicitly marked as monitored
-			if (OpenmrsObject.class.isAssignableFrom(assocType) && !getMonitoredClasses().contains(assocType.getName())) {
-				getImplicitlyMonitoredClasses().add(assocType);
-			}
-		}
+		return getConfiguration().getImplicitlyMonitoredClasses();
 	}
 	
 	/**
@@ -314,37 +402,186 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 	 * 
 	 * @param propertyChangesMap mapping of edited properties to their previous and new values
 	 * @return the generated xml text
+	 * @should generate xml that is read back as the same changes
 	 */
 	public static String generateChangesXml(Map<String, Object[]> propertyChangesMap) {
-		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-		sb.append("\n<" + NODE_CHANGES + ">");
-		for (Map.Entry<String, Object[]> entry : propertyChangesMap.entrySet()) {
-			Object previousObj = entry.getValue()[0];
-			Object newObj = entry.getValue()[1];
-			//we shouldn't even be here since this is not a change
-			if (previousObj == null && newObj == null)
-				continue;
-			
-			sb.append("\n<" + NODE_PROPERTY + " " + ATTRIBUTE_NAME + "=\"" + entry.getKey() + "\">");
-			//when deserializing, missing tags will be interpreted as NULL
-			if (previousObj != null) {
-				sb.append("\n<" + NODE_PREVIOUS + ">");
-				sb.append("\n" + StringEscapeUtils.escapeXml(previousObj.toString()));
-				sb.append("\n</" + NODE_PREVIOUS + ">");
-			}
-			if (newObj != null) {
-				sb.append("\n<" + NODE_NEW + ">");
-				sb.append("\n" + StringEscapeUtils.escapeXml(newObj.toString()));
-				sb.append("\n</" + NODE_NEW + ">");
-			}
-			sb.append("\n</" + NODE_PROPERTY + ">");
+		return ChangesXmlSerializer.serialize(propertyChangesMap);
+	}
+	
+	/**
+	 * Converts the specified changes xml to a map where the key is the property name and the value
+	 * is a String array of length 2 with the new value at index 0 and the previous value at index 1
+	 * 
+	 * @param changesXml the xml to convert
+	 * @return the property names mapped to their new and previous values
+	 * @should return the property names mapped to their new and previous values
+	 */
+	public static Map<String, String[]> parseChangesXml(String changesXml) {
+		return ChangesXmlParser.parse(changesXml);
+	}
+	
+	/**
+	 * Encodes the changes of an edited object in the compact format that is stored for new audit
+	 * logs, it starts with a format version marker and holds the length prefixed property names and
+	 * values
+	 * 
+	 * @param propertyChangesMap mapping of edited properties to their previous and new values
+	 * @return the encoded changes, they are compressed if they are longer than the compression
+	 *         threshold
+	 * @should encode changes that are decoded back as the same changes
+	 * @should compress changes that are longer than the compression threshold
+	 * @should not compress changes that are shorter than the compression threshold
+	 */
+	public static String encodeChanges(Map<String, Object[]> propertyChangesMap) {
+		return ChangesCompressor.compressIfLarge(CompactChangesFormat.encode(propertyChangesMap));
+	}
+	
+	/**
+	 * Sets the minimum length in characters of the encoded changes of an audit log for them to be
+	 * compressed when they are stored
+	 * 
+	 * @param threshold the threshold, a value less than 1 disables compression
+	 */
+	public static void setCompressionThreshold(int threshold) {
+		ChangesCompressor.setThreshold(threshold);
+	}
+	
+	/**
+	 * Gets the default minimum length in characters of the encoded changes for them to be
+	 * compressed
+	 * 
+	 * @return the default compression threshold
+	 */
+	public static int getDefaultCompressionThreshold() {
+		return ChangesCompressor.DEFAULT_THRESHOLD;
+	}
+	
+	/**
+	 * Converts the specified stored changes to a map where the key is the property name and the
+	 * value is a String array of length 2 with the new value at index 0 and the previous value at
+	 * index 1, the changes can either be in the compact format or the xml format used by earlier
+	 * versions of the module and can be compressed
+	 * 
+	 * @param changes the stored changes
+	 * @return the property names mapped to their new and previous values
+	 * @should decode changes in the compact format
+	 * @should decode changes in the xml format
+	 * @should decode compressed changes
+	 */
+	public static Map<String, String[]> decodeChanges(String changes) {
+		changes = decompressChanges(changes);
+		if (CompactChangesFormat.isCompactFormat(changes))
+			return CompactChangesFormat.decode(changes);
+		
+		return ChangesXmlParser.parse(changes);
+	}
+	
+	/**
+	 * Gets the number of changed properties in the specified stored changes without converting
+	 * them, the changes can either be in the compact format or the xml format and can be compressed
+	 * 
+	 * @param changes the stored changes
+	 * @return the number of changed properties
+	 * @should return the number of changed properties
+	 */
+	public static int countChanges(String changes) {
+		changes = decompressChanges(changes);
+		if (CompactChangesFormat.isCompactFormat(changes))
+			return CompactChangesFormat.count(changes);
+		
+		return ChangesXmlParser.count(changes);
+	}
+	
+	/**
+	 * Decompresses the specified stored changes if they are compressed
+	 * 
+	 * @param changes the stored changes
+	 * @return the uncompressed changes, empty changes in the compact format if they can't be
+	 *         decompressed
+	 */
+	private static String decompressChanges(String changes) {
+		if (!ChangesCompressor.isCompressed(changes))
+			return changes;
+		
+		try {
+			return ChangesCompressor.decompress(changes);
+		}
+		catch (APIException e) {
+			log.error("Failed to decompress changes:" + changes, e);
 		}
 		
-		sb.append("\n</" + NODE_CHANGES + ">");
+		return CompactChangesFormat.PREFIX;
+	}
+	
+	/**
+	 * Checks if the specified stored changes are in the xml format used by earlier versions of the
+	 * module
+	 * 
+	 * @param changes the stored changes
+	 * @return true if the changes are in the xml format otherwise false
+	 */
+	public static boolean isChangesXml(String changes) {
+		return changes.startsWith("<");
+	}
+	
+	/**
+	 * Joins the flattened elements that were added to or removed from a collection property into
+	 * the single value that gets stored, elements are separated with commas and commas and
+	 * backslashes inside elements are escaped with a backslash so that the value can be split back
+	 * by {@link #splitCollectionElements(String)}
+	 * 
+	 * @param elements the flattened elements
+	 * @return the joined elements
+	 * @should escape separators and backslashes in elements
+	 */
+	public static String joinCollectionElements(Collection<?> elements) {
+		StringBuilder sb = new StringBuilder();
+		boolean first = true;
+		for (Object element : elements) {
+			if (!first)
+				sb.append(COLLECTION_ELEMENT_SEPARATOR);
+			first = false;
+			String text = (element != null) ? element.toString() : "";
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == COLLECTION_ELEMENT_SEPARATOR || c == ESCAPE_CHARACTER)
+					sb.append(ESCAPE_CHARACTER);
+				sb.append(c);
+			}
+		}
 		
 		return sb.toString();
 	}
 	
+	/**
+	 * Splits a stored value of a collection property into its elements
+	 * 
+	 * @param value the value as joined by {@link #joinCollectionElements(Collection)}
+	 * @return the elements
+	 * @should split the value into the elements that were joined
+	 */
+	public static List<String> splitCollectionElements(String value) {
+		List<String> elements = new ArrayList<String>();
+		if (StringUtils.isEmpty(value))
+			return elements;
+		
+		StringBuilder element = new StringBuilder();
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == ESCAPE_CHARACTER && i + 1 < value.length()) {
+				element.append(value.charAt(++i));
+			} else if (c == COLLECTION_ELEMENT_SEPARATOR) {
+				elements.add(element.toString());
+				element.setLength(0);
+			} else {
+				element.append(c);
+			}
+		}
+		elements.add(element.toString());
+		
+		return elements;
+	}
+	
 	/**
 	 * Gets the text content of a nested previous or new tag inside a property tag with a name
 	 * attribute matching the specified property name
@@ -401,7 +638,8 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 	 * @param startMonitoring specifies if the the classes are getting added to removed
 	 */
 	private static void updateGlobalProperty(Set<Class<? extends OpenmrsObject>> clazzes, boolean startMonitoring) {
-		boolean isNoneExceptStrategy = getMonitoringStrategy() == MonitoringStrategy.NONE_EXCEPT;
+		MonitoringConfiguration config = getConfiguration();
+		boolean isNoneExceptStrategy = config.getStrategy() == MonitoringStrategy.NONE_EXCEPT;
 		AdministrationService as = Context.getAdministrationService();
 		String gpName = isNoneExceptStrategy ? AuditLogConstants.GP_MONITORED_CLASSES
 		        : AuditLogConstants.GP_UN_MONITORED_CLASSES;
@@ -412,47 +650,31 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 			gp = new GlobalProperty(gpName, null, description);
 		}
 		
-		if (isNoneExceptStrategy) {
-			for (Class<? extends OpenmrsObject> clazz : clazzes) {
-				if (startMonitoring)
-					getMonitoredClasses().add(clazz);
-				else {
-					getMonitoredClasses().remove(clazz);
-					//remove subclasses too
-					Set<Class<?>> subclasses = getPersistentConcreteSubclasses(clazz, null, null);
-					for (Class<?> subclass : subclasses) {
-						getMonitoredClasses().remove(subclass);
-					}
-				}
-			}
-			
-			gp.setPropertyValue(StringUtils.join(getAsListOfClassnames(getMonitoredClasses()), ","));
-		} else {
-			for (Class<? extends OpenmrsObject> clazz : clazzes) {
-				if (startMonitoring) {
-					getUnMonitoredClasses().remove(clazz);
-					Set<Class<?>> subclasses = getPersistentConcreteSubclasses(clazz, null, null);
-					for (Class<?> subclass : subclasses) {
-						getUnMonitoredClasses().remove(subclass);
-					}
-				} else
-					getUnMonitoredClasses().add(clazz);
+		//The current snapshot is never modified, we work on a copy
+		Set<Class<?>> classesToUpdate = new HashSet<Class<?>>(isNoneExceptStrategy ? config.getMonitoredClasses()
+		        : config.getUnMonitoredClasses());
+		//start monitoring adds to the monitored classes and removes from the un monitored ones
+		boolean add = (startMonitoring == isNoneExceptStrategy);
+		for (Class<? extends OpenmrsObject> clazz : clazzes) {
+			Set<Class<?>> subclasses = getPersistentConcreteSubclasses(clazz, null, null);
+			if (add) {
+				classesToUpdate.add(clazz);
+				classesToUpdate.addAll(subclasses);
+			} else {
+				classesToUpdate.remove(clazz);
+				classesToUpdate.removeAll(subclasses);
 			}
-			
-			gp.setPropertyValue(StringUtils.join(getAsListOfClassnames(getUnMonitoredClasses()), ","));
 		}
 		
+		gp.setPropertyValue(StringUtils.join(getAsListOfClassnames(classesToUpdate), ","));
+		
 		try {
+			//The listener publishes the new snapshot, setting it here too would overwrite any change
+			//it applied in the mean time
 			as.saveGlobalProperty(gp);
 		}
 		catch (Exception e) {
-			//The cache needs to be rebuilt since we already updated the 
-			//cached above but the GP value didn't get updated in the DB
-			if (isNoneExceptStrategy)
-				monitoredClassnamesCache = null;
-			else
-				unMonitoredClassnamesCache = null;
-			implicitlyMonitoredClassnamesCache = null;
+			log.error("Failed to save the global property:" + gpName, e);
 		}
 	}
 	
@@ -472,20 +694,14 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 	
 	/**
 	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+	 * @should apply a changed compression threshold
 	 */
 	@Override
 	public void globalPropertyChanged(GlobalProperty gp) {
-		if (AuditLogConstants.GP_MONITORED_CLASSES.equals(gp.getProperty()))
-			monitoredClassnamesCache = null;
-		else if (AuditLogConstants.GP_UN_MONITORED_CLASSES.equals(gp.getProperty()))
-			unMonitoredClassnamesCache = null;
-		else {
-			//we need to invalidate all caches when the strategy is changed
-			monitoringStrategyCache = null;
-			monitoredClassnamesCache = null;
-			unMonitoredClassnamesCache = null;
-		}
-		implicitlyMonitoredClassnamesCache = null;
+		if (AuditLogConstants.GP_COMPRESSION_THRESHOLD.equals(gp.getProperty()))
+			updateCompressionThreshold(gp.getPropertyValue());
+		else
+			updateConfiguration(gp.getProperty(), gp.getPropertyValue());
 	}
 	
 	/**
@@ -493,16 +709,10 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 	 */
 	@Override
 	public void globalPropertyDeleted(String gpName) {
-		if (AuditLogConstants.GP_MONITORED_CLASSES.equals(gpName))
-			monitoredClassnamesCache = null;
-		else if (AuditLogConstants.GP_UN_MONITORED_CLASSES.equals(gpName))
-			unMonitoredClassnamesCache = null;
-		else {
-			monitoringStrategyCache = null;
-			monitoredClassnamesCache = null;
-			unMonitoredClassnamesCache = null;
-		}
-		implicitlyMonitoredClassnamesCache = null;
+		if (AuditLogConstants.GP_COMPRESSION_THRESHOLD.equals(gpName))
+			updateCompressionThreshold(null);
+		else
+			updateConfiguration(gpName, null);
 	}
 	
 	/**
@@ -512,37 +722,57 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 	public boolean supportsPropertyName(String gpName) {
 		return AuditLogConstants.GP_MONITORING_STRATEGY.equals(gpName)
 		        || AuditLogConstants.GP_MONITORED_CLASSES.equals(gpName)
-		        || AuditLogConstants.GP_UN_MONITORED_CLASSES.equals(gpName);
+		        || AuditLogConstants.GP_UN_MONITORED_CLASSES.equals(gpName)
+		        || AuditLogConstants.GP_COMPRESSION_THRESHOLD.equals(gpName);
+	}
+	
+	/**
+	 * Applies a new value of the compression threshold global property, the default is used if the
+	 * value is blank or invalid
+	 * 
+	 * @param value the new value of the global property, null if it was deleted
+	 */
+	private static void updateCompressionThreshold(String value) {
+		int threshold = getDefaultCompressionThreshold();
+		if (StringUtils.isNotBlank(value)) {
+			//0 disables compression, negative values are invalid
+			int intValue = NumberUtils.toInt(value.trim(), -1);
+			if (intValue >= 0)
+				threshold = intValue;
+			else
+				log.warn("Invalid compression threshold '" + value + "', using the default value " + threshold);
+		}
+		
+		setCompressionThreshold(threshold);
 	}
 	
 	/**
-	 * Gets a set of concrete subclasses for the specified class recursively, note that interfaces
-	 * and abstract classes are excluded
+	 * Gets a set of concrete subclasses for the specified class, note that interfaces and abstract
+	 * classes are excluded. Unless specific mapped classes are passed in, the subclasses are looked
+	 * up in an index that is built once from the metadata of all the mapped classes
 	 * 
 	 * @param clazz
-	 * @param foundSubclasses the list of subclasses found in previous recursive calls, should be
-	 *            null for the first call
-	 * @param mappedClasses
+	 * @param foundSubclasses a set to add the found subclasses to, can be null
+	 * @param mappedClasses the class metadata to search, if null all mapped classes are searched
 	 * @return a set of subclasses
 	 * @should return a list of subclasses for the specified type
 	 * @should exclude interfaces and abstract classes
+	 * @should return the same subclasses as a scan of all the mapped classes
 	 */
-	@SuppressWarnings("unchecked")
 	public static Set<Class<?>> getPersistentConcreteSubclasses(Class<?> clazz, Set<Class<?>> foundSubclasses,
 	                                                            Collection<ClassMetadata> mappedClasses) {
 		if (foundSubclasses == null)
 			foundSubclasses = new HashSet<Class<?>>();
-		if (mappedClasses == null)
-			mappedClasses = getSessionFactory().getAllClassMetadata().values();
 		
 		if (clazz != null) {
-			for (ClassMetadata cmd : mappedClasses) {
-				Class<?> possibleSubclass = cmd.getMappedClass(EntityMode.POJO);
-				if (!clazz.equals(possibleSubclass) && clazz.isAssignableFrom(possibleSubclass)) {
-					if (!Modifier.isAbstract(possibleSubclass.getModifiers()) && !possibleSubclass.isInterface())
+			if (mappedClasses == null) {
+				foundSubclasses.addAll(getMappedClassIndex().getConcreteSubclasses(clazz));
+			} else {
+				for (ClassMetadata cmd : mappedClasses) {
+					Class<?> possibleSubclass = cmd.getMappedClass(EntityMode.POJO);
+					if (!clazz.equals(possibleSubclass) && clazz.isAssignableFrom(possibleSubclass)
+					        && !Modifier.isAbstract(possibleSubclass.getModifiers()) && !possibleSubclass.isInterface())
 						foundSubclasses.add(possibleSubclass);
-					foundSubclasses
-					        .addAll(getPersistentConcreteSubclasses(possibleSubclass, foundSubclasses, mappedClasses));
 				}
 			}
 		}
@@ -551,34 +781,182 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 	}
 	
 	/**
-	 * @param as
-	 * @param owningEntityClassname
-	 * @param propertyName
-	 * @param uuidOrId
-	 * @param isUuid
-	 * @return
+	 * Gets the display strings of the new and previous values of the specified changes of an object
+	 * of the specified type, values that reference other objects by uuid or id are replaced by the
+	 * display strings of the referenced objects and the values of collection properties are split
+	 * into their elements which are resolved by the mapped element type of the collection. The
+	 * references are grouped by the mapped classes of the referenced objects so that the objects
+	 * are fetched with a single query per class.
+	 * 
+	 * @param as the audit log service
+	 * @param owningEntityClassname the class name of the object that owns the changed properties
+	 * @param changes a map of property names to arrays with the new value at index 0 and the previous
+	 *            value at index 1
+	 * @return a map of the property names to arrays with the display string of the new value at index
+	 *         0 and that of the previous value at index 1
+	 * @should replace references by the display strings of the referenced objects
+	 * @should return the values that are not references as they are
+	 * @should replace the elements of collection properties by the display strings of the elements
 	 */
-	public static String getPropertyDisplayString(AuditLogService as, String owningEntityClassname, String propertyName,
-	                                              String uuidOrId, boolean isUuid) {
-		String displayString = "";
+	public static Map<String, String[]> getPropertyDisplayStrings(AuditLogService as, String owningEntityClassname,
+	                                                              Map<String, String[]> changes) {
+		ClassMetadata metadata = null;
 		try {
-			PropertyDescriptor pd = BeanUtils.getPropertyDescriptor(Context.loadClass(owningEntityClassname), propertyName);
-			Object actualObject = null;
-			if (isUuid) {
-				actualObject = as.getObjectByUuid(pd.getPropertyType(), uuidOrId);
-			} else {
-				actualObject = as.getObjectById(pd.getPropertyType(), Integer.valueOf(uuidOrId));
+			metadata = getSessionFactory().getClassMetadata(Context.loadClass(owningEntityClassname));
+		}
+		catch (ClassNotFoundException e) {
+			log.warn("Cannot load class:" + owningEntityClassname);
+		}
+		
+		//Collect the referenced uuids and ids by the mapped classes of the referenced objects
+		Set<String> collectionProperties = new HashSet<String>();
+		Map<String, Class<?>> referencedClasses = new HashMap<String, Class<?>>();
+		Map<Class<?>, Set<String>> classUuidsMap = new HashMap<Class<?>, Set<String>>();
+		Map<Class<?>, Set<Integer>> classIdsMap = new HashMap<Class<?>, Set<Integer>>();
+		if (metadata != null) {
+			for (Map.Entry<String, String[]> entry : changes.entrySet()) {
+				Type type = getPropertyType(metadata, entry.getKey());
+				if (type == null)
+					continue;
+				
+				if (type.isCollectionType()) {
+					collectionProperties.add(entry.getKey());
+					//The elements of maps are stored as key=value entries, they are displayed as they are
+					if (type instanceof MapType)
+						continue;
+					
+					String role = ((CollectionType) type).getRole();
+					type = getSessionFactory().getCollectionMetadata(role).getElementType();
+				}
+				
+				if (!type.isEntityType() || !OpenmrsObject.class.isAssignableFrom(type.getReturnedClass()))
+					continue;
+				
+				Class<?> referencedClass = type.getReturnedClass();
+				referencedClasses.put(entry.getKey(), referencedClass);
+				if (!classUuidsMap.containsKey(referencedClass)) {
+					classUuidsMap.put(referencedClass, new HashSet<String>());
+					classIdsMap.put(referencedClass, new HashSet<Integer>());
+				}
+				
+				for (String value : entry.getValue()) {
+					for (String element : getElements(value, collectionProperties.contains(entry.getKey()))) {
+						if (element.startsWith(AuditLogConstants.UUID_LABEL)) {
+							classUuidsMap.get(referencedClass).add(element.substring(AuditLogConstants.UUID_LABEL.length()));
+						} else if (element.startsWith(AuditLogConstants.ID_LABEL)) {
+							try {
+								String id = element.substring(AuditLogConstants.ID_LABEL.length());
+								classIdsMap.get(referencedClass).add(Integer.valueOf(id));
+							}
+							catch (NumberFormatException e) {
+								//Not an integer id, it can't be looked up
+							}
+						}
+					}
+				}
 			}
-			
-			if (actualObject != null) {
-				displayString = getDisplayString(actualObject, true);
+		}
+		
+		//The display strings of the referenced objects by class and by labeled uuid and id
+		Map<Class<?>, Map<String, String>> classDisplayStringsMap = new HashMap<Class<?>, Map<String, String>>();
+		for (Class<?> referencedClass : classUuidsMap.keySet()) {
+			classDisplayStringsMap.put(referencedClass, getReferenceDisplayStrings(as, referencedClass, classUuidsMap
+			        .get(referencedClass), classIdsMap.get(referencedClass)));
+		}
+		
+		Map<String, String[]> propertyDisplayStrings = new HashMap<String, String[]>();
+		for (Map.Entry<String, String[]> entry : changes.entrySet()) {
+			Map<String, String> referenceDisplayStrings = classDisplayStringsMap.get(referencedClasses.get(entry
+			        .getKey()));
+			String[] displayStrings = new String[entry.getValue().length];
+			for (int i = 0; i < displayStrings.length; i++) {
+				List<String> elementDisplayStrings = new ArrayList<String>();
+				for (String element : getElements(entry.getValue()[i], collectionProperties.contains(entry.getKey()))) {
+					String displayString = null;
+					if (referenceDisplayStrings != null && isReference(element))
+						displayString = referenceDisplayStrings.get(element);
+					
+					//Fall back to the stored value for references to objects that no longer exist
+					elementDisplayStrings.add((displayString != null) ? displayString : element);
+				}
+				displayStrings[i] = StringUtils.join(elementDisplayStrings, ", ");
 			}
+			propertyDisplayStrings.put(entry.getKey(), displayStrings);
 		}
-		catch (Exception e) {
-			log.warn("Error", e);
+		
+		return propertyDisplayStrings;
+	}
+	
+	/**
+	 * Looks up the objects of the specified mapped class with the specified uuids or ids and gets
+	 * their display strings
+	 * 
+	 * @param as the audit log service
+	 * @param referencedClass the mapped class of the referenced objects
+	 * @param uuids the uuids of the objects
+	 * @param ids the ids of the objects
+	 * @return a map of the labeled uuids and ids of the found objects to their display strings
+	 */
+	private static Map<String, String> getReferenceDisplayStrings(AuditLogService as, Class<?> referencedClass,
+	                                                              Set<String> uuids, Set<Integer> ids) {
+		Map<String, String> displayStrings = new HashMap<String, String>();
+		List<?> objects;
+		try {
+			objects = as.getObjectsByUuidOrId(referencedClass, uuids, ids);
+		}
+		catch (HibernateException e) {
+			log.warn("Failed to look up the referenced objects of type:" + referencedClass.getName(), e);
+			return displayStrings;
 		}
 		
-		return displayString;
+		ClassMetadata metadata = getSessionFactory().getClassMetadata(referencedClass);
+		for (Object obj : objects) {
+			String displayString = getDisplayString(obj, true);
+			if (obj instanceof OpenmrsObject)
+				displayStrings.put(AuditLogConstants.UUID_LABEL + ((OpenmrsObject) obj).getUuid(), displayString);
+			if (metadata != null)
+				displayStrings.put(AuditLogConstants.ID_LABEL + metadata.getIdentifier(obj, EntityMode.POJO), displayString);
+		}
+		
+		return displayStrings;
+	}
+	
+	/**
+	 * Gets the mapped type of the specified property
+	 * 
+	 * @param metadata the metadata of the class that owns the property
+	 * @param propertyName the property name
+	 * @return the type or null if the property isn't mapped
+	 */
+	private static Type getPropertyType(ClassMetadata metadata, String propertyName) {
+		try {
+			return metadata.getPropertyType(propertyName);
+		}
+		catch (HibernateException e) {
+			//Not a mapped property e.g the logs were created before the mapping was changed
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the elements of a stored value
+	 * 
+	 * @param value the stored value
+	 * @param isCollection specifies if the value is that of a collection property
+	 * @return the elements of the collection or a list with the value as its only element
+	 */
+	private static List<String> getElements(String value, boolean isCollection) {
+		if (value == null)
+			return Collections.emptyList();
+		if (isCollection)
+			return splitCollectionElements(value);
+		
+		return Collections.singletonList(value);
+	}
+	
+	private static boolean isReference(String value) {
+		return value != null
+		        && (value.startsWith(AuditLogConstants.UUID_LABEL) || value.startsWith(AuditLogConstants.ID_LABEL));
 	}
 	
 	/**
@@ -595,7 +973,7 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 			Concept concept = (Concept) obj;
 			displayString += ((concept.getName() != null) ? concept.getName().getName() : "");
 		} else if (Person.class.isAssignableFrom(obj.getClass())) {
-			Person person = (Patient) obj;
+			Person person = (Person) obj;
 			displayString += ((person.getPersonName() != null) ? person.getPersonName().getFullName() : "");
 		} else if (Obs.class.isAssignableFrom(obj.getClass())) {
 			Obs obs = (Obs) obj;
@@ -615,36 +993,28 @@ public class AuditLogUtil implements GlobalPropertyListener, ApplicationContextA
 	}
 	
 	/**
-	 * Finds all the types for associations to monitor in as recursive way i.e if a Persistent type
-	 * is found, then we also find its collection element types and types for fields mapped as one
-	 * to one, note that this only includes sub types of {@link OpenmrsObject}
+	 * Builds the index of the class hierarchy and associations of the mapped classes, this is
+	 * called when the module is started so that the index is ready by the time it is needed, any
+	 * previously built index gets replaced
+	 */
+	public static void loadMappedClassIndex() {
+		mappedClassIndex = new MappedClassIndex(getSessionFactory());
+	}
+	
+	/**
+	 * Gets the index of the class hierarchy and associations of the mapped classes, building it if
+	 * it doesn't exist yet
 	 * 
-	 * @param clazz
-	 * @param foundAssocTypes the found
-	 * @return a set of found class names
+	 * @return the {@link MappedClassIndex}
 	 */
-	private static Set<Class<?>> getAssociationTypesToMonitor(Class<?> clazz, Set<Class<?>> foundAssocTypes) {
-		if (foundAssocTypes == null)
-			foundAssocTypes = new HashSet<Class<?>>();
-		
-		ClassMetadata cmd = getSessionFactory().getClassMetadata(clazz);
-		if (cmd != null) {
-			for (Type type : cmd.getPropertyTypes()) {
-				//If this is a OneToOne or a collection type
-				if (type.isCollectionType() || OneToOneType.class.isAssignableFrom(type.getClass())) {
-					Class<?> assocType = type.getReturnedClass();
-					if (type.isCollectionType()) {
-						assocType = ((CollectionType) type).getElementType((SessionFactoryImplementor) getSessionFactory())
-						        .getReturnedClass();
-					}
-					if (OpenmrsObject.class.isAssignableFrom(assocType) && !foundAssocTypes.contains(assocType)) {
-						foundAssocTypes.add(assocType);
-						foundAssocTypes.addAll(getAssociationTypesToMonitor(assocType, foundAssocTypes));
-					}
-				}
-			}
+	private static MappedClassIndex getMappedClassIndex() {
+		MappedClassIndex index = mappedClassIndex;
+		if (index == null) {
+			index = new MappedClassIndex(getSessionFactory());
+			mappedClassIndex = index;
 		}
-		return foundAssocTypes;
+		
+		return index;
 	}
 	
 	/**
@@ -0,0 +1,129 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openmrs.api.APIException;
+
+/**
+ * Deflates stored changes that are larger than the compression threshold, the compressed bytes are
+ * base64 encoded since they are stored in a text column and the result starts with the
+ * {@link #PREFIX} marker so that each stored value tells whether it needs to be inflated.
+ */
+final class ChangesCompressor {
+	
+	/**
+	 * The marker at the start of compressed changes
+	 */
+	static final String PREFIX = "~z";
+	
+	static final int DEFAULT_THRESHOLD = 4096;
+	
+	private static final String CHARSET = "UTF-8";
+	
+	private static final int BUFFER_SIZE = 1024;
+	
+	//The minimum length in characters of the changes to compress, a value less than 1 disables it
+	private static volatile int threshold = DEFAULT_THRESHOLD;
+	
+	private ChangesCompressor() {
+	}
+	
+	/**
+	 * @see AuditLogUtil#setCompressionThreshold(int)
+	 */
+	static void setThreshold(int threshold) {
+		ChangesCompressor.threshold = threshold;
+	}
+	
+	/**
+	 * @param changes the stored changes
+	 * @return true if the specified changes are compressed
+	 */
+	static boolean isCompressed(String changes) {
+		return changes.startsWith(PREFIX);
+	}
+	
+	/**
+	 * Compresses the specified changes if they are at least as long as the threshold and if it
+	 * makes them shorter
+	 * 
+	 * @param changes the changes to compress
+	 * @return the compressed changes or the specified changes if they are not compressed
+	 */
+	static String compressIfLarge(String changes) {
+		int currentThreshold = threshold;
+		if (currentThreshold < 1 || changes.length() < currentThreshold)
+			return changes;
+		
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setInput(changes.getBytes(CHARSET));
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(changes.length() / 4);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			
+			String compressed = PREFIX + new String(Base64.encodeBase64(out.toByteArray()), CHARSET);
+			return (compressed.length() < changes.length()) ? compressed : changes;
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new APIException(CHARSET + " is not supported", e);
+		}
+		finally {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * Inflates the specified compressed changes
+	 * 
+	 * @param changes the compressed changes
+	 * @return the uncompressed changes
+	 */
+	static String decompress(String changes) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(Base64.decodeBase64(changes.substring(PREFIX.length()).getBytes(CHARSET)));
+			ByteArrayOutputStream out = new ByteArrayOutputStream(changes.length() * 4);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new APIException("Compressed changes are truncated");
+				
+				out.write(buffer, 0, length);
+			}
+			
+			return out.toString(CHARSET);
+		}
+		catch (DataFormatException e) {
+			throw new APIException("Failed to decompress changes", e);
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new APIException(CHARSET + " is not supported", e);
+		}
+		finally {
+			inflater.end();
+		}
+	}
+}
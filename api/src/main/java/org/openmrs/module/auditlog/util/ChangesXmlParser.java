@@ -0,0 +1,113 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.util;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads the changes xml of an audit log with a streaming parser, the factory is created once and
+ * shared since creating readers from a configured factory is thread safe, unlike building a DOM
+ * this doesn't keep the whole document in memory.
+ */
+final class ChangesXmlParser {
+	
+	private static final Log log = LogFactory.getLog(ChangesXmlParser.class);
+	
+	private static final String PROPERTY_START_TAG = "<" + AuditLogUtil.NODE_PROPERTY + " ";
+	
+	private static final XMLInputFactory factory = createFactory();
+	
+	private ChangesXmlParser() {
+	}
+	
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		return inputFactory;
+	}
+	
+	/**
+	 * @see AuditLogUtil#parseChangesXml(String)
+	 */
+	static Map<String, String[]> parse(String changesXml) {
+		Map<String, String[]> map = new HashMap<String, String[]>();
+		XMLStreamReader reader = null;
+		try {
+			reader = factory.createXMLStreamReader(new StringReader(changesXml));
+			String propertyName = null;
+			String newValue = null;
+			String previousValue = null;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String tagName = reader.getLocalName();
+					if (AuditLogUtil.NODE_PROPERTY.equals(tagName)) {
+						propertyName = reader.getAttributeValue(null, AuditLogUtil.ATTRIBUTE_NAME);
+						newValue = null;
+						previousValue = null;
+					} else if (AuditLogUtil.NODE_NEW.equals(tagName)) {
+						newValue = reader.getElementText().trim();
+					} else if (AuditLogUtil.NODE_PREVIOUS.equals(tagName)) {
+						previousValue = reader.getElementText().trim();
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT
+				        && AuditLogUtil.NODE_PROPERTY.equals(reader.getLocalName())) {
+					map.put(propertyName, new String[] { newValue, previousValue });
+				}
+			}
+		}
+		catch (XMLStreamException e) {
+			log.error("Failed to parse changes xml", e);
+		}
+		finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				}
+				catch (XMLStreamException e) {
+					//ignore
+				}
+			}
+		}
+		
+		return map;
+	}
+	
+	/**
+	 * @see AuditLogUtil#countChanges(String)
+	 */
+	static int count(String changesXml) {
+		//Values are escaped so the start tag can't occur inside them
+		int count = 0;
+		int index = changesXml.indexOf(PROPERTY_START_TAG);
+		while (index > -1) {
+			count++;
+			index = changesXml.indexOf(PROPERTY_START_TAG, index + PROPERTY_START_TAG.length());
+		}
+		
+		return count;
+	}
+}
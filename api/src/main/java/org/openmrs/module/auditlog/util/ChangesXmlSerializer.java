@@ -0,0 +1,136 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.util;
+
+import java.util.Map;
+
+/**
+ * Writes the changes of an edited object as xml directly into a buffer that is reused by each
+ * thread, values are escaped while they are appended and no whitespace is added between tags so
+ * that the only string created is the returned one.
+ */
+final class ChangesXmlSerializer {
+	
+	private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+	
+	private static final int INITIAL_BUFFER_SIZE = 512;
+	
+	//Buffers that grew beyond this size are not kept for reuse so that a single big change set
+	//doesn't keep a large buffer around for the thread
+	private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+	
+	private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>();
+	
+	private ChangesXmlSerializer() {
+	}
+	
+	/**
+	 * @see AuditLogUtil#generateChangesXml(Map)
+	 */
+	static String serialize(Map<String, Object[]> propertyChangesMap) {
+		StringBuilder sb = buffers.get();
+		if (sb == null)
+			sb = new StringBuilder(INITIAL_BUFFER_SIZE);
+		else
+			buffers.remove();
+		
+		try {
+			sb.append(XML_HEADER);
+			openTag(sb, AuditLogUtil.NODE_CHANGES);
+			for (Map.Entry<String, Object[]> entry : propertyChangesMap.entrySet()) {
+				Object previousObj = entry.getValue()[0];
+				Object newObj = entry.getValue()[1];
+				//we shouldn't even be here since this is not a change
+				if (previousObj == null && newObj == null)
+					continue;
+				
+				sb.append('<').append(AuditLogUtil.NODE_PROPERTY).append(' ').append(AuditLogUtil.ATTRIBUTE_NAME)
+				        .append("=\"");
+				appendEscaped(sb, entry.getKey());
+				sb.append("\">");
+				//when deserializing, missing tags will be interpreted as NULL
+				if (previousObj != null) {
+					openTag(sb, AuditLogUtil.NODE_PREVIOUS);
+					appendEscaped(sb, previousObj.toString());
+					closeTag(sb, AuditLogUtil.NODE_PREVIOUS);
+				}
+				if (newObj != null) {
+					openTag(sb, AuditLogUtil.NODE_NEW);
+					appendEscaped(sb, newObj.toString());
+					closeTag(sb, AuditLogUtil.NODE_NEW);
+				}
+				closeTag(sb, AuditLogUtil.NODE_PROPERTY);
+			}
+			closeTag(sb, AuditLogUtil.NODE_CHANGES);
+			
+			return sb.toString();
+		}
+		finally {
+			//A nested call e.g. from a value's toString method gets a buffer of its own
+			if (sb.capacity() <= MAX_RETAINED_BUFFER_SIZE) {
+				sb.setLength(0);
+				buffers.set(sb);
+			}
+		}
+	}
+	
+	private static void openTag(StringBuilder sb, String name) {
+		sb.append('<').append(name).append('>');
+	}
+	
+	private static void closeTag(StringBuilder sb, String name) {
+		sb.append("</").append(name).append('>');
+	}
+	
+	/**
+	 * Appends the specified text escaping the characters that are markup in xml text and attribute
+	 * values, carriage returns are escaped too since xml parsers would otherwise normalize them
+	 *
+	 * @param sb the buffer to append to
+	 * @param text the text to append
+	 */
+	private static void appendEscaped(StringBuilder sb, String text) {
+		int start = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			String replacement;
+			switch (text.charAt(i)) {
+				case '<':
+					replacement = "&lt;";
+					break;
+				case '>':
+					replacement = "&gt;";
+					break;
+				case '&':
+					replacement = "&amp;";
+					break;
+				case '"':
+					replacement = "&quot;";
+					break;
+				case '\'':
+					replacement = "&apos;";
+					break;
+				case '\r':
+					replacement = "&#13;";
+					break;
+				default:
+					continue;
+			}
+			
+			sb.append(text, start, i).append(replacement);
+			start = i + 1;
+		}
+		sb.append(text, start, length);
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A compact text encoding for the changes of an edited object, it starts with the
+ * {@link #PREFIX} format marker followed by the name, previous value and new value of each
+ * changed property, each of them is written as its length in characters, a colon and the
+ * characters themselves or as a dash if it is null, e.g.
+ *
+ * <pre>
+ * ~14:name3:old3:new7:retired-4:true
+ * </pre>
+ *
+ * Since values are length prefixed they are stored as they are, no escaping is needed.
+ */
+final class CompactChangesFormat {
+	
+	private static final Log log = LogFactory.getLog(CompactChangesFormat.class);
+	
+	/**
+	 * The marker at the start of changes in this format, it includes the format version
+	 */
+	static final String PREFIX = "~1";
+	
+	private static final char LENGTH_SEPARATOR = ':';
+	
+	private static final char NULL_MARKER = '-';
+	
+	private CompactChangesFormat() {
+	}
+	
+	/**
+	 * @param changes the stored changes
+	 * @return true if the specified changes are in this format
+	 */
+	static boolean isCompactFormat(String changes) {
+		return changes.startsWith(PREFIX);
+	}
+	
+	/**
+	 * @see AuditLogUtil#encodeChanges(Map)
+	 */
+	static String encode(Map<String, Object[]> propertyChangesMap) {
+		StringBuilder sb = new StringBuilder(PREFIX);
+		for (Map.Entry<String, Object[]> entry : propertyChangesMap.entrySet()) {
+			Object previousObj = entry.getValue()[0];
+			Object newObj = entry.getValue()[1];
+			//we shouldn't even be here since this is not a change
+			if (previousObj == null && newObj == null)
+				continue;
+			
+			appendField(sb, entry.getKey());
+			appendField(sb, (previousObj != null) ? previousObj.toString() : null);
+			appendField(sb, (newObj != null) ? newObj.toString() : null);
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * @see AuditLogUtil#decodeChanges(String)
+	 */
+	static Map<String, String[]> decode(String changes) {
+		Map<String, String[]> map = new HashMap<String, String[]>();
+		int[] position = new int[] { PREFIX.length() };
+		try {
+			while (position[0] < changes.length()) {
+				String propertyName = readField(changes, position);
+				String previousValue = readField(changes, position);
+				String newValue = readField(changes, position);
+				map.put(propertyName, new String[] { newValue, previousValue });
+			}
+		}
+		catch (RuntimeException e) {
+			log.error("Failed to decode changes:" + changes, e);
+		}
+		
+		return map;
+	}
+	
+	/**
+	 * @see AuditLogUtil#countChanges(String)
+	 */
+	static int count(String changes) {
+		int count = 0;
+		int[] position = new int[] { PREFIX.length() };
+		try {
+			while (position[0] < changes.length()) {
+				for (int i = 0; i < 3; i++) {
+					skipField(changes, position);
+				}
+				count++;
+			}
+		}
+		catch (RuntimeException e) {
+			log.error("Failed to count changes:" + changes, e);
+		}
+		
+		return count;
+	}
+	
+	private static void appendField(StringBuilder sb, String value) {
+		if (value == null)
+			sb.append(NULL_MARKER);
+		else
+			sb.append(value.length()).append(LENGTH_SEPARATOR).append(value);
+	}
+	
+	/**
+	 * Reads the field at the specified position and moves the position past it
+	 *
+	 * @param changes the encoded changes
+	 * @param position single element array holding the position of the field
+	 * @return the field value
+	 */
+	private static String readField(String changes, int[] position) {
+		int start = position[0];
+		skipField(changes, position);
+		if (changes.charAt(start) == NULL_MARKER)
+			return null;
+		
+		return changes.substring(changes.indexOf(LENGTH_SEPARATOR, start) + 1, position[0]);
+	}
+	
+	private static void skipField(String changes, int[] position) {
+		int start = position[0];
+		if (changes.charAt(start) == NULL_MARKER) {
+			position[0] = start + 1;
+			return;
+		}
+		
+		int separatorIndex = changes.indexOf(LENGTH_SEPARATOR, start);
+		int length = Integer.parseInt(changes.substring(start, separatorIndex));
+		int end = separatorIndex + 1 + length;
+		if (end > changes.length())
+			throw new IllegalArgumentException("Field at index " + start + " is truncated");
+		
+		position[0] = end;
+	}
+}
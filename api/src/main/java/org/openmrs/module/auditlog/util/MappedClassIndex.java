@@ -0,0 +1,181 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.util;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.EntityMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.OneToOneType;
+import org.hibernate.type.Type;
+import org.openmrs.OpenmrsObject;
+
+/**
+ * An immutable index of the class hierarchy and the associations of the mapped classes, it is built
+ * once from the hibernate metadata so that looking up the persistent subclasses or the association
+ * types of a class doesn't require scanning the metadata of all the mapped classes.
+ */
+final class MappedClassIndex {
+	
+	private static final Log log = LogFactory.getLog(MappedClassIndex.class);
+	
+	private final List<Class<?>> mappedClasses;
+	
+	//Mapping between mapped classes and their concrete mapped subclasses
+	private final Map<Class<?>, Set<Class<?>>> concreteSubclasses;
+	
+	//Mapping between mapped classes and their collection element and one to one association types
+	//that are OpenmrsObjects, including the association types of the association types and so on
+	private final Map<Class<?>, Set<Class<?>>> associationTypes;
+	
+	//The same as concreteSubclasses but for classes that are not mapped e.g interfaces, filled on demand
+	private final ConcurrentMap<Class<?>, Set<Class<?>>> unmappedClassSubclasses = new ConcurrentHashMap<Class<?>, Set<Class<?>>>();
+	
+	/**
+	 * Builds the index from the metadata of the specified {@link SessionFactory}
+	 *
+	 * @param sessionFactory the session factory
+	 */
+	@SuppressWarnings("unchecked")
+	MappedClassIndex(SessionFactory sessionFactory) {
+		long start = System.currentTimeMillis();
+		Collection<ClassMetadata> allClassMetadata = sessionFactory.getAllClassMetadata().values();
+		List<Class<?>> classes = new ArrayList<Class<?>>(allClassMetadata.size());
+		Map<Class<?>, Set<Class<?>>> directAssociationTypes = new HashMap<Class<?>, Set<Class<?>>>();
+		for (ClassMetadata classMetadata : allClassMetadata) {
+			Class<?> mappedClass = classMetadata.getMappedClass(EntityMode.POJO);
+			classes.add(mappedClass);
+			directAssociationTypes.put(mappedClass,
+			    getDirectAssociationTypes(classMetadata, (SessionFactoryImplementor) sessionFactory));
+		}
+		
+		Map<Class<?>, Set<Class<?>>> subclassMap = new HashMap<Class<?>, Set<Class<?>>>();
+		Map<Class<?>, Set<Class<?>>> associationTypeMap = new HashMap<Class<?>, Set<Class<?>>>();
+		for (Class<?> mappedClass : classes) {
+			subclassMap.put(mappedClass, Collections.unmodifiableSet(findConcreteSubclasses(mappedClass, classes)));
+			associationTypeMap.put(mappedClass,
+			    Collections.unmodifiableSet(findAssociationTypes(mappedClass, directAssociationTypes)));
+		}
+		
+		this.mappedClasses = Collections.unmodifiableList(classes);
+		this.concreteSubclasses = subclassMap;
+		this.associationTypes = associationTypeMap;
+		
+		if (log.isDebugEnabled())
+			log.debug("Indexed " + classes.size() + " mapped classes in " + (System.currentTimeMillis() - start) + "ms");
+	}
+	
+	/**
+	 * @return an unmodifiable list of all the mapped classes
+	 */
+	List<Class<?>> getMappedClasses() {
+		return mappedClasses;
+	}
+	
+	/**
+	 * Gets the concrete mapped subclasses of the specified class, interfaces and abstract classes
+	 * are excluded
+	 *
+	 * @param clazz the class
+	 * @return an unmodifiable set of subclasses
+	 */
+	Set<Class<?>> getConcreteSubclasses(Class<?> clazz) {
+		Set<Class<?>> subclasses = concreteSubclasses.get(clazz);
+		if (subclasses == null) {
+			subclasses = unmappedClassSubclasses.get(clazz);
+			if (subclasses == null) {
+				subclasses = Collections.unmodifiableSet(findConcreteSubclasses(clazz, mappedClasses));
+				unmappedClassSubclasses.putIfAbsent(clazz, subclasses);
+			}
+		}
+		
+		return subclasses;
+	}
+	
+	/**
+	 * Gets the types for the collection and one to one associations of the specified class that
+	 * are {@link OpenmrsObject}s, including those of the found types recursively
+	 *
+	 * @param clazz the class
+	 * @return an unmodifiable set of association types
+	 */
+	Set<Class<?>> getAssociationTypes(Class<?> clazz) {
+		Set<Class<?>> types = associationTypes.get(clazz);
+		if (types == null)
+			return Collections.emptySet();
+		
+		return types;
+	}
+	
+	private static Set<Class<?>> findConcreteSubclasses(Class<?> clazz, Collection<Class<?>> classes) {
+		Set<Class<?>> subclasses = new HashSet<Class<?>>();
+		for (Class<?> possibleSubclass : classes) {
+			if (!clazz.equals(possibleSubclass) && clazz.isAssignableFrom(possibleSubclass)
+			        && !Modifier.isAbstract(possibleSubclass.getModifiers()) && !possibleSubclass.isInterface())
+				subclasses.add(possibleSubclass);
+		}
+		
+		return subclasses;
+	}
+	
+	private static Set<Class<?>> getDirectAssociationTypes(ClassMetadata classMetadata,
+	                                                       SessionFactoryImplementor sessionFactory) {
+		Set<Class<?>> types = new HashSet<Class<?>>();
+		for (Type type : classMetadata.getPropertyTypes()) {
+			//If this is a OneToOne or a collection type
+			if (type.isCollectionType() || OneToOneType.class.isAssignableFrom(type.getClass())) {
+				Class<?> assocType = type.getReturnedClass();
+				if (type.isCollectionType())
+					assocType = ((CollectionType) type).getElementType(sessionFactory).getReturnedClass();
+				if (OpenmrsObject.class.isAssignableFrom(assocType))
+					types.add(assocType);
+			}
+		}
+		
+		return types;
+	}
+	
+	private static Set<Class<?>> findAssociationTypes(Class<?> clazz, Map<Class<?>, Set<Class<?>>> directAssociationTypes) {
+		Set<Class<?>> found = new HashSet<Class<?>>();
+		LinkedList<Class<?>> toVisit = new LinkedList<Class<?>>();
+		toVisit.add(clazz);
+		while (!toVisit.isEmpty()) {
+			Set<Class<?>> direct = directAssociationTypes.get(toVisit.removeFirst());
+			if (direct != null) {
+				for (Class<?> assocType : direct) {
+					if (found.add(assocType))
+						toVisit.add(assocType);
+				}
+			}
+		}
+		
+		return found;
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.openmrs.module.auditlog.MonitoringStrategy;
+
+/**
+ * An immutable snapshot of the monitoring settings, it is never modified after creation, instead a
+ * new instance replaces it whenever the settings change so that threads reading it never see a
+ * partially updated state.
+ */
+final class MonitoringConfiguration {
+	
+	private final MonitoringStrategy strategy;
+	
+	private final Set<Class<?>> monitoredClasses;
+	
+	private final Set<Class<?>> unMonitoredClasses;
+	
+	private final Set<Class<?>> implicitlyMonitoredClasses;
+	
+	private final Map<Class<?>, MonitoringVerdict> verdicts;
+	
+	/**
+	 * @param strategy the monitoring strategy
+	 * @param monitoredClasses the monitored classes including their subclasses
+	 * @param unMonitoredClasses the un monitored classes including their subclasses
+	 * @param implicitlyMonitoredClasses the implicitly monitored classes
+	 * @param verdicts the monitoring verdicts of all mapped classes
+	 */
+	MonitoringConfiguration(MonitoringStrategy strategy, Set<Class<?>> monitoredClasses,
+	    Set<Class<?>> unMonitoredClasses, Set<Class<?>> implicitlyMonitoredClasses,
+	    Map<Class<?>, MonitoringVerdict> verdicts) {
+		this.strategy = strategy;
+		this.monitoredClasses = Collections.unmodifiableSet(new HashSet<Class<?>>(monitoredClasses));
+		this.unMonitoredClasses = Collections.unmodifiableSet(new HashSet<Class<?>>(unMonitoredClasses));
+		this.implicitlyMonitoredClasses = Collections.unmodifiableSet(new HashSet<Class<?>>(implicitlyMonitoredClasses));
+		this.verdicts = Collections.unmodifiableMap(new HashMap<Class<?>, MonitoringVerdict>(verdicts));
+	}
+	
+	/**
+	 * @return the strategy
+	 */
+	MonitoringStrategy getStrategy() {
+		return strategy;
+	}
+	
+	/**
+	 * @return an unmodifiable set of the monitored classes
+	 */
+	Set<Class<?>> getMonitoredClasses() {
+		return monitoredClasses;
+	}
+	
+	/**
+	 * @return an unmodifiable set of the un monitored classes
+	 */
+	Set<Class<?>> getUnMonitoredClasses() {
+		return unMonitoredClasses;
+	}
+	
+	/**
+	 * @return an unmodifiable set of the implicitly monitored classes
+	 */
+	Set<Class<?>> getImplicitlyMonitoredClasses() {
+		return implicitlyMonitoredClasses;
+	}
+	
+	/**
+	 * Gets the monitoring verdict for the specified class, for classes that are not mapped e.g.
+	 * proxies, the verdict of the nearest mapped superclass is returned
+	 *
+	 * @param clazz the class to check
+	 * @return the monitoring verdict
+	 */
+	MonitoringVerdict getVerdict(Class<?> clazz) {
+		for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+			MonitoringVerdict verdict = verdicts.get(c);
+			if (verdict != null)
+				return verdict;
+		}
+		
+		return MonitoringVerdict.NOT_MONITORED;
+	}
+}
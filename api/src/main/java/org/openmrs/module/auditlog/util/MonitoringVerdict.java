@@ -0,0 +1,44 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.util;
+
+/**
+ * Specifies if objects of a given type are monitored, it is derived from the monitoring strategy
+ * and the monitored, un monitored and implicitly monitored classes
+ */
+public enum MonitoringVerdict {
+	
+	/**
+	 * Objects of the type are monitored because of the monitoring strategy and the monitored or un
+	 * monitored classes
+	 */
+	MONITORED,
+	
+	/**
+	 * Objects of the type are monitored only because their owning type is monitored
+	 */
+	IMPLICITLY_MONITORED,
+	
+	/**
+	 * Objects of the type are not monitored
+	 */
+	NOT_MONITORED;
+	
+	/**
+	 * @return true if objects of the type are either explicitly or implicitly monitored
+	 */
+	public boolean isMonitored() {
+		return this != NOT_MONITORED;
+	}
+}
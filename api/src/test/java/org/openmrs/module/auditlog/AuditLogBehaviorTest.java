@@ -13,6 +13,7 @@
  */
 package org.openmrs.module.auditlog;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -26,6 +27,9 @@ import java.util.Set;
 import junit.framework.Assert;
 
 import org.apache.commons.lang.StringUtils;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.proxy.HibernateProxy;
 import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.Concept;
@@ -48,11 +52,15 @@ import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.auditlog.AuditLog.Action;
 import org.openmrs.module.auditlog.api.AuditLogService;
+import org.openmrs.module.auditlog.api.db.AuditLogDAO;
+import org.openmrs.module.auditlog.api.db.AuditLogWriter;
+import org.openmrs.module.auditlog.api.db.hibernate.interceptor.HibernateAuditLogInterceptor;
 import org.openmrs.module.auditlog.util.AuditLogConstants;
 import org.openmrs.module.auditlog.util.AuditLogUtil;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.test.annotation.NotTransactional;
+import org.springframework.transaction.PlatformTransactionManager;
 
 /**
  * Contains tests for testing the core functionality of the module
@@ -115,6 +123,23 @@ public class AuditLogBehaviorTest extends BaseModuleContextSensitiveTest {
 		return auditLogService.getAuditLogs(null, null, null, null, null, null);
 	}
 	
+	private HibernateAuditLogInterceptor getAuditLogInterceptor() {
+		return Context.getRegisteredComponents(HibernateAuditLogInterceptor.class).get(0);
+	}
+	
+	/**
+	 * Creates a writer of its own for a test to start and shut down so that the writer shared with
+	 * the other tests is never left running
+	 * 
+	 * @return the {@link AuditLogWriter}
+	 */
+	private AuditLogWriter createAuditLogWriter() {
+		AuditLogWriter writer = new AuditLogWriter();
+		writer.setDao(applicationContext.getBean("auditLogDAO", AuditLogDAO.class));
+		writer.setTransactionManager(applicationContext.getBean("transactionManager", PlatformTransactionManager.class));
+		return writer;
+	}
+	
 	@Test
 	@NotTransactional
 	public void shouldCreateAnAuditLogEntryWhenANewObjectIsCreated() {
@@ -134,6 +159,27 @@ public class AuditLogBehaviorTest extends BaseModuleContextSensitiveTest {
 		Assert.assertEquals(Action.CREATED, logs.get(1).getAction());
 	}
 	
+	@Test
+	@NotTransactional
+	public void shouldIncludeTheLogsOfTheObjectsInTheCollectionsOfAnObjectInItsHistory() {
+		Concept concept = new Concept();
+		ConceptName cn = new ConceptName("new", Locale.ENGLISH);
+		cn.setConcept(concept);
+		concept.addName(cn);
+		concept.setDatatype(conceptService.getConceptDatatype(4));
+		concept.setConceptClass(conceptService.getConceptClass(4));
+		conceptService.saveConcept(concept);
+		
+		List<AuditLog> logs = auditLogService.getAuditLogsForObject(Concept.class, concept.getUuid(), null, 10);
+		Assert.assertEquals(2, logs.size());
+		Set<String> objectUuids = new HashSet<String>();
+		for (AuditLog log : logs) {
+			objectUuids.add(log.getObjectUuid());
+		}
+		Assert.assertTrue(objectUuids.contains(concept.getUuid()));
+		Assert.assertTrue(objectUuids.contains(cn.getUuid()));
+	}
+	
 	@Test
 	@NotTransactional
 	public void shouldCreateAnAuditLogEntryWhenAnObjectIsDeleted() throws Exception {
@@ -145,6 +191,54 @@ public class AuditLogBehaviorTest extends BaseModuleContextSensitiveTest {
 		Assert.assertEquals(Action.DELETED, logs.get(0).getAction());
 	}
 	
+	@Test
+	@NotTransactional
+	public void shouldWriteAuditLogsInTheBackgroundWhenAsyncWritesAreEnabled() throws Exception {
+		HibernateAuditLogInterceptor interceptor = getAuditLogInterceptor();
+		AuditLogWriter sharedWriter = interceptor.getAuditLogWriter();
+		AuditLogWriter writer = createAuditLogWriter();
+		interceptor.setAuditLogWriter(writer);
+		writer.start(10, 1);
+		try {
+			Assert.assertTrue(writer.isAsync());
+			encounterService.purgeEncounterType(encounterService.getEncounterType(6));
+		}
+		finally {
+			//waits for the queued logs to be written
+			writer.shutdown();
+			interceptor.setAuditLogWriter(sharedWriter);
+		}
+		
+		Assert.assertFalse(writer.isAsync());
+		List<AuditLog> logs = getAllLogs();
+		Assert.assertEquals(1, logs.size());
+		Assert.assertEquals(Action.DELETED, logs.get(0).getAction());
+	}
+	
+	@Test
+	@NotTransactional
+	public void shouldWriteThePendingAuditLogsWhenTheWriterIsShutDown() throws Exception {
+		HibernateAuditLogInterceptor interceptor = getAuditLogInterceptor();
+		AuditLogWriter sharedWriter = interceptor.getAuditLogWriter();
+		AuditLogWriter writer = createAuditLogWriter();
+		interceptor.setAuditLogWriter(writer);
+		//no writer threads so that the queued events are still pending when shutting down
+		writer.start(10, 0);
+		try {
+			encounterService.purgeEncounterType(encounterService.getEncounterType(6));
+			Assert.assertEquals(0, getAllLogs().size());
+		}
+		finally {
+			writer.shutdown();
+			interceptor.setAuditLogWriter(sharedWriter);
+		}
+		
+		Assert.assertFalse(writer.isAsync());
+		List<AuditLog> logs = getAllLogs();
+		Assert.assertEquals(1, logs.size());
+		Assert.assertEquals(Action.DELETED, logs.get(0).getAction());
+	}
+	
 	@Test
 	@NotTransactional
 	public void shouldCreateAnAuditLogEntryWhenAnObjectIsEdited() throws Exception {
@@ -183,6 +277,89 @@ public class AuditLogBehaviorTest extends BaseModuleContextSensitiveTest {
 		Assert.assertEquals(newVersion, changes.get("version")[0]);
 	}
 	
+	@Test
+	@NotTransactional
+	public void shouldStoreThePropertyChangesOfAnEditedObject() throws Exception {
+		Concept concept = conceptService.getConcept(3);
+		String oldVersion = concept.getVersion();
+		concept.setVersion("1.11");
+		conceptService.saveConcept(concept);
+		
+		List<Class<? extends OpenmrsObject>> clazzes = new ArrayList<Class<? extends OpenmrsObject>>();
+		clazzes.add(Concept.class);
+		List<AuditLog> logs = auditLogService.getAuditLogsByProperty(clazzes, "version", null, null, null, null);
+		Assert.assertEquals(1, logs.size());
+		Assert.assertEquals(1, logs.get(0).getPropertyChanges().size());
+		PropertyChange propertyChange = logs.get(0).getPropertyChanges().iterator().next();
+		Assert.assertEquals(Concept.class.getName(), propertyChange.getClassName());
+		Assert.assertEquals(oldVersion, propertyChange.getPreviousValue());
+		Assert.assertEquals("1.11", propertyChange.getNewValue());
+		Assert.assertTrue(auditLogService.getAuditLogsByProperty(clazzes, "datatype", null, null, null, null).isEmpty());
+	}
+	
+	@Test
+	@NotTransactional
+	public void shouldStoreTheChangeCountAndChangedPropertiesOfAnEditedObject() throws Exception {
+		Concept concept = conceptService.getConcept(3);
+		concept.setVersion("1.11");
+		conceptService.saveConcept(concept);
+		
+		List<AuditLog> logs = getAllLogs();
+		Assert.assertEquals(1, logs.size());
+		AuditLog auditLog = logs.get(0);
+		Assert.assertTrue(auditLog.hasStoredChangeCount());
+		Assert.assertEquals(1, auditLog.getChangeCount());
+		Assert.assertEquals("version", auditLog.getChangedProperties());
+	}
+	
+	@Test
+	@NotTransactional
+	public void shouldStoreTheUuidOfAnAssociatedObjectThatIsNotLoaded() throws Exception {
+		Concept concept = conceptService.getConcept(3);
+		SessionFactory sessionFactory = (SessionFactory) applicationContext.getBean("sessionFactory");
+		//Gets a proxy for the concept class without hitting the database
+		ConceptClass cc = (ConceptClass) sessionFactory.getCurrentSession().load(ConceptClass.class, 2);
+		concept.setConceptClass(cc);
+		conceptService.saveConcept(concept);
+		
+		List<AuditLog> logs = getAllLogs();
+		Assert.assertEquals(1, logs.size());
+		Map<String, String[]> changes = logs.get(0).getChanges();
+		Assert.assertEquals(AuditLogConstants.UUID_LABEL + cc.getUuid(), changes.get("conceptClass")[0]);
+	}
+	
+	@Test
+	@NotTransactional
+	public void shouldNotLogAChangeWhenAnAssociatedProxyIsReplacedByTheSameEntity() throws Exception {
+		Context.clearSession();
+		Concept concept = conceptService.getConcept(3);
+		//The previous state holds the uninitialized proxy of the concept class
+		ConceptClass proxy = concept.getConceptClass();
+		Assert.assertTrue(proxy instanceof HibernateProxy);
+		Assert.assertTrue(((HibernateProxy) proxy).getHibernateLazyInitializer().isUninitialized());
+		
+		SessionFactory sessionFactory = (SessionFactory) applicationContext.getBean("sessionFactory");
+		Session otherSession = sessionFactory.openSession();
+		ConceptClass sameClass;
+		try {
+			Serializable id = ((HibernateProxy) proxy).getHibernateLazyInitializer().getIdentifier();
+			sameClass = (ConceptClass) otherSession.get(ConceptClass.class, id);
+		}
+		finally {
+			otherSession.close();
+		}
+		Assert.assertFalse(sameClass instanceof HibernateProxy);
+		concept.setConceptClass(sameClass);
+		concept.setVersion("1.11");
+		conceptService.saveConcept(concept);
+		
+		List<AuditLog> logs = getAllLogs();
+		Assert.assertEquals(1, logs.size());
+		Map<String, String[]> changes = logs.get(0).getChanges();
+		Assert.assertEquals(1, changes.size());
+		Assert.assertNotNull(changes.get("version"));
+	}
+	
 	@Test
 	@NotTransactional
 	public void shouldCreateNoLogEntryIfNoChangesAreMadeToAnExistingObject() throws Exception {
@@ -337,18 +514,22 @@ public class AuditLogBehaviorTest extends BaseModuleContextSensitiveTest {
 		//for the two concept maps and the concept
 		int originalCount = concept.getDescriptions().size();
 		Assert.assertTrue(originalCount > 0);
-		concept.removeDescription(concept.getDescription());
+		ConceptDescription removedDescription = concept.getDescription();
+		concept.removeDescription(removedDescription);
 		conceptService.saveConcept(concept);
 		Assert.assertEquals(originalCount - 1, concept.getDescriptions().size());
 		List<Class<? extends OpenmrsObject>> clazzes = new ArrayList<Class<? extends OpenmrsObject>>();
 		clazzes.add(Concept.class);
 		List<AuditLog> conceptLogs = auditLogService.getAuditLogs(null, Collections.singletonList(Action.UPDATED), null,
 		    null, null, null);
-		//TODO this test should check that the collection was updated
 		Assert.assertEquals(existingUpdateLogs.size() + 1, conceptLogs.size());
 		conceptLogs.removeAll(existingUpdateLogs);
 		Assert.assertEquals(1, conceptLogs.size());
 		Assert.assertEquals(conceptLogs.get(0).getObjectUuid(), concept.getUuid());
+		//The removed description should be stored as the previous value of the collection
+		String[] descriptionChanges = conceptLogs.get(0).getChanges().get("descriptions");
+		Assert.assertNotNull(descriptionChanges);
+		Assert.assertEquals(AuditLogConstants.UUID_LABEL + removedDescription.getUuid(), descriptionChanges[1]);
 		
 		//Hibernate doens't call interceptor.onDelete for an element that is removed from a child collection
 		//List<AuditLog> descriptionLogs = auditLogService.getAuditLogs(null, Collections.singletonList(Action.DELETED), null, null, null, null);
@@ -379,12 +560,48 @@ public class AuditLogBehaviorTest extends BaseModuleContextSensitiveTest {
 		conceptLogs.removeAll(existingUpdateLogs);
 		Assert.assertEquals(1, conceptLogs.size());
 		Assert.assertEquals(conceptLogs.get(0).getObjectUuid(), concept.getUuid());
+		//The added description should be stored as the new value of the collection
+		String[] descriptionChanges = conceptLogs.get(0).getChanges().get("descriptions");
+		Assert.assertNotNull(descriptionChanges);
+		Assert.assertEquals(AuditLogConstants.UUID_LABEL + cd1.getUuid(), descriptionChanges[0]);
 		
 		List<AuditLog> descriptionLogs = auditLogService.getAuditLogs(null, Collections.singletonList(Action.CREATED), null,
 		    null, null, null);
 		Assert.assertEquals(1, descriptionLogs.size());
 	}
 	
+	@Test
+	@NotTransactional
+	public void shouldDisplayTheElementsThatWereAddedToAChildCollection() throws Exception {
+		Concept concept = conceptService.getConcept(5089);
+		conceptService.saveConcept(concept);
+		List<AuditLog> existingUpdateLogs = auditLogService.getAuditLogs(null, Collections.singletonList(Action.UPDATED),
+		    null, null, null, null);
+		
+		ConceptDescription cd1 = new ConceptDescription("desc1", Locale.ENGLISH);
+		cd1.setDateCreated(new Date());
+		cd1.setCreator(Context.getAuthenticatedUser());
+		concept.addDescription(cd1);
+		ConceptDescription cd2 = new ConceptDescription("desc2", Locale.FRENCH);
+		cd2.setDateCreated(new Date());
+		cd2.setCreator(Context.getAuthenticatedUser());
+		concept.addDescription(cd2);
+		conceptService.saveConcept(concept);
+		
+		List<AuditLog> conceptLogs = auditLogService.getAuditLogs(null, Collections.singletonList(Action.UPDATED), null,
+		    null, null, null);
+		conceptLogs.removeAll(existingUpdateLogs);
+		Assert.assertEquals(1, conceptLogs.size());
+		AuditLog conceptLog = conceptLogs.get(0);
+		Map<String, String[]> displayStrings = AuditLogUtil.getPropertyDisplayStrings(auditLogService, conceptLog
+		        .getClassName(), conceptLog.getChanges());
+		String newDisplayString = displayStrings.get("descriptions")[0];
+		Assert.assertTrue(newDisplayString.contains(AuditLogUtil.getDisplayString(cd1, true)));
+		Assert.assertTrue(newDisplayString.contains(AuditLogUtil.getDisplayString(cd2, true)));
+		Assert.assertFalse(newDisplayString.contains(AuditLogConstants.UUID_LABEL));
+		Assert.assertEquals("", displayStrings.get("descriptions")[1]);
+	}
+	
 	@Test
 	@NotTransactional
 	public void shouldCreateAnAuditLogForTheParentObjectWhenAnElementInAChildCollectionIsUpdated() throws Exception {
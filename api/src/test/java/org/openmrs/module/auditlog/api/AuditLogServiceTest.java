@@ -15,8 +15,10 @@ package org.openmrs.module.auditlog.api;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.Assert;
 
@@ -24,12 +26,16 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.Concept;
 import org.openmrs.ConceptName;
+import org.openmrs.EncounterType;
 import org.openmrs.GlobalProperty;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.User;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.auditlog.AuditLog;
 import org.openmrs.module.auditlog.AuditLog.Action;
+import org.openmrs.module.auditlog.AuditLogSummary;
+import org.openmrs.module.auditlog.PropertyChange;
 import org.openmrs.module.auditlog.util.AuditLogConstants;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.Verifies;
@@ -233,4 +239,383 @@ public class AuditLogServiceTest extends BaseModuleContextSensitiveTest {
 		clazzes.add(OpenmrsObject.class);
 		Assert.assertEquals(4, service.getAuditLogs(clazzes, null, null, null, null, null).size());
 	}
+	
+	/**
+	 * @see {@link AuditLogService#convertChangesXml(Integer,int)}
+	 */
+	@Test
+	@Verifies(value = "should convert the changes of audit logs stored as xml to the compact format", method = "convertChangesXml(Integer,int)")
+	public void convertChangesXml_shouldConvertTheChangesOfAuditLogsStoredAsXmlToTheCompactFormat() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		AuditLog auditLog = service.getObjectById(AuditLog.class, 2);
+		Assert.assertTrue(auditLog.getChangesXml().startsWith("<"));
+		
+		Assert.assertEquals(2, service.convertChangesXml(null, 10).intValue());
+		Assert.assertFalse(auditLog.getChangesXml().startsWith("<"));
+		Assert.assertEquals(1, auditLog.getChanges().size());
+		Assert.assertEquals("1.1", auditLog.getChanges().get("version")[0]);
+		Assert.assertEquals("1.0", auditLog.getChanges().get("version")[1]);
+		Assert.assertNull(service.convertChangesXml(null, 10));
+	}
+	
+	/**
+	 * @see {@link AuditLogService#convertChangesXml(Integer,int)}
+	 */
+	@Test
+	@Verifies(value = "should only convert audit logs after the specified auditLogId", method = "convertChangesXml(Integer,int)")
+	public void convertChangesXml_shouldOnlyConvertAuditLogsAfterTheSpecifiedAuditLogId() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		AuditLog auditLog = service.getObjectById(AuditLog.class, 2);
+		
+		Assert.assertNull(service.convertChangesXml(2, 10));
+		Assert.assertTrue(auditLog.getChangesXml().startsWith("<"));
+	}
+	
+	/**
+	 * @see {@link AuditLogService#backfillChangeCounts(Integer,int)}
+	 */
+	@Test
+	@Verifies(value = "should store the change count and changed properties of audit logs without them", method = "backfillChangeCounts(Integer,int)")
+	public void backfillChangeCounts_shouldStoreTheChangeCountAndChangedPropertiesOfAuditLogsWithoutThem()
+	    throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		AuditLog auditLog = service.getObjectById(AuditLog.class, 2);
+		Assert.assertFalse(auditLog.hasStoredChangeCount());
+		
+		Assert.assertEquals(4, service.backfillChangeCounts(null, 10).intValue());
+		Assert.assertTrue(auditLog.hasStoredChangeCount());
+		Assert.assertEquals(1, auditLog.getChangeCount());
+		Assert.assertEquals("version", auditLog.getChangedProperties());
+		AuditLog createdLog = service.getObjectById(AuditLog.class, 1);
+		Assert.assertEquals(0, createdLog.getChangeCount());
+		Assert.assertEquals("", createdLog.getChangedProperties());
+		Assert.assertNull(service.backfillChangeCounts(null, 10));
+	}
+	
+	/**
+	 * @see {@link AuditLogService#backfillChangeCounts(Integer,int)}
+	 */
+	@Test
+	@Verifies(value = "should only update audit logs after the specified auditLogId", method = "backfillChangeCounts(Integer,int)")
+	public void backfillChangeCounts_shouldOnlyUpdateAuditLogsAfterTheSpecifiedAuditLogId() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		
+		Assert.assertEquals(3, service.backfillChangeCounts(2, 1).intValue());
+		Assert.assertFalse(service.getObjectById(AuditLog.class, 2).hasStoredChangeCount());
+		Assert.assertTrue(service.getObjectById(AuditLog.class, 3).hasStoredChangeCount());
+		Assert.assertFalse(service.getObjectById(AuditLog.class, 4).hasStoredChangeCount());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#backfillPropertyChanges(Integer,int)}
+	 */
+	@Test
+	@Verifies(value = "should store the property changes of audit logs without them", method = "backfillPropertyChanges(Integer,int)")
+	public void backfillPropertyChanges_shouldStoreThePropertyChangesOfAuditLogsWithoutThem() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		AuditLog auditLog = service.getObjectById(AuditLog.class, 2);
+		auditLog.getPropertyChanges().clear();
+		Context.flushSession();
+		Assert.assertEquals(0, service.getAuditLogsByProperty(null, "version", null, null, null, null).size());
+		
+		Assert.assertEquals(2, service.backfillPropertyChanges(null, 10).intValue());
+		Context.flushSession();
+		Assert.assertEquals(1, auditLog.getPropertyChanges().size());
+		PropertyChange propertyChange = auditLog.getPropertyChanges().iterator().next();
+		Assert.assertEquals(Concept.class.getName(), propertyChange.getClassName());
+		Assert.assertEquals("version", propertyChange.getPropertyName());
+		Assert.assertEquals("1.0", propertyChange.getPreviousValue());
+		Assert.assertEquals("1.1", propertyChange.getNewValue());
+		Assert.assertEquals(1, service.getAuditLogsByProperty(null, "version", null, null, null, null).size());
+		Assert.assertNull(service.backfillPropertyChanges(null, 10));
+	}
+	
+	/**
+	 * @see {@link AuditLogService#backfillPropertyChanges(Integer,int)}
+	 */
+	@Test
+	@Verifies(value = "should only update audit logs after the specified auditLogId", method = "backfillPropertyChanges(Integer,int)")
+	public void backfillPropertyChanges_shouldOnlyUpdateAuditLogsAfterTheSpecifiedAuditLogId() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		AuditLog auditLog = service.getObjectById(AuditLog.class, 2);
+		auditLog.getPropertyChanges().clear();
+		Context.flushSession();
+		
+		Assert.assertNull(service.backfillPropertyChanges(2, 10));
+		Assert.assertTrue(auditLog.getPropertyChanges().isEmpty());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogsByProperty(List<Class<OpenmrsObject>>,String,Date,Date,
+	 *      Integer,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return the logs of changes to the specified property", method = "getAuditLogsByProperty(List<Class<OpenmrsObject>>,String,Date,Date,Integer,Integer)")
+	public void getAuditLogsByProperty_shouldReturnTheLogsOfChangesToTheSpecifiedProperty() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		List<AuditLog> auditLogs = service.getAuditLogsByProperty(null, "version", null, null, null, null);
+		Assert.assertEquals(1, auditLogs.size());
+		Assert.assertEquals(2, auditLogs.get(0).getAuditLogId().intValue());
+		Assert.assertEquals(0, service.getAuditLogsByProperty(null, "datatype", null, null, null, null).size());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogsByProperty(List<Class<OpenmrsObject>>,String,Date,Date,
+	 *      Integer,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should match on the specified classes", method = "getAuditLogsByProperty(List<Class<OpenmrsObject>>,String,Date,Date,Integer,Integer)")
+	public void getAuditLogsByProperty_shouldMatchOnTheSpecifiedClasses() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		List<Class<? extends OpenmrsObject>> clazzes = new ArrayList<Class<? extends OpenmrsObject>>();
+		clazzes.add(ConceptName.class);
+		Assert.assertEquals(0, service.getAuditLogsByProperty(clazzes, "version", null, null, null, null).size());
+		
+		clazzes.add(Concept.class);
+		List<AuditLog> auditLogs = service.getAuditLogsByProperty(clazzes, "version", null, null, null, null);
+		Assert.assertEquals(1, auditLogs.size());
+		Assert.assertEquals(2, auditLogs.get(0).getAuditLogId().intValue());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogsAfter(List<Class<OpenmrsObject>>,List<Action>,List<User>,
+	 *      Date,Date,Date,Integer,int)}
+	 */
+	@Test
+	@Verifies(value = "should return the first page if no last seen entry is specified", method = "getAuditLogsAfter(List<Class<OpenmrsObject>>,List<Action>,List<User>,Date,Date,Date,Integer,int)")
+	public void getAuditLogsAfter_shouldReturnTheFirstPageIfNoLastSeenEntryIsSpecified() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		List<AuditLog> auditLogs = service.getAuditLogsAfter(null, null, null, null, null, null, null, 2);
+		Assert.assertEquals(2, auditLogs.size());
+		Assert.assertEquals(4, auditLogs.get(0).getAuditLogId().intValue());
+		Assert.assertEquals(3, auditLogs.get(1).getAuditLogId().intValue());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogsAfter(List<Class<OpenmrsObject>>,List<Action>,List<User>,
+	 *      Date,Date,Date,Integer,int)}
+	 */
+	@Test
+	@Verifies(value = "should return the entries that follow the last seen entry", method = "getAuditLogsAfter(List<Class<OpenmrsObject>>,List<Action>,List<User>,Date,Date,Date,Integer,int)")
+	public void getAuditLogsAfter_shouldReturnTheEntriesThatFollowTheLastSeenEntry() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		AuditLog last = service.getAuditLogsAfter(null, null, null, null, null, null, null, 2).get(1);
+		List<AuditLog> auditLogs = service.getAuditLogsAfter(null, null, null, null, null, last.getDateCreated(), last
+		        .getAuditLogId(), 2);
+		Assert.assertEquals(2, auditLogs.size());
+		Assert.assertEquals(2, auditLogs.get(0).getAuditLogId().intValue());
+		Assert.assertEquals(1, auditLogs.get(1).getAuditLogId().intValue());
+		
+		last = auditLogs.get(1);
+		Assert.assertTrue(service.getAuditLogsAfter(null, null, null, null, null, last.getDateCreated(), last.getAuditLogId(),
+		    2).isEmpty());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogsAfter(List<Class<OpenmrsObject>>,List<Action>,List<User>,
+	 *      Date,Date,Date,Integer,int)}
+	 */
+	@Test
+	@Verifies(value = "should return entries created at the same time as the last seen entry with a lower id", method = "getAuditLogsAfter(List<Class<OpenmrsObject>>,List<Action>,List<User>,Date,Date,Date,Integer,int)")
+	public void getAuditLogsAfter_shouldReturnEntriesCreatedAtTheSameTimeAsTheLastSeenEntryWithALowerId()
+	    throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		Date dateCreated = service.getObjectById(AuditLog.class, 2).getDateCreated();
+		//Pretend the last seen entry has a higher id and was created in the same second as log 2
+		List<AuditLog> auditLogs = service.getAuditLogsAfter(null, null, null, null, null, dateCreated, 3, 10);
+		Assert.assertEquals(2, auditLogs.size());
+		Assert.assertEquals(2, auditLogs.get(0).getAuditLogId().intValue());
+		Assert.assertEquals(1, auditLogs.get(1).getAuditLogId().intValue());
+		
+		Assert.assertEquals(1, service.getAuditLogsAfter(null, null, null, null, null, dateCreated, 2, 10).size());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogSummaries(List<Class<OpenmrsObject>>,List<Action>,List<User>,
+	 *      Date,Date,Date,Integer,Integer,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return summaries of the matching audit logs", method = "getAuditLogSummaries(List<Class<OpenmrsObject>>,List<Action>,List<User>,Date,Date,Date,Integer,Integer,Integer)")
+	public void getAuditLogSummaries_shouldReturnSummariesOfTheMatchingAuditLogs() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		List<Action> actions = new ArrayList<Action>();
+		actions.add(Action.UPDATED);
+		List<AuditLogSummary> summaries = service.getAuditLogSummaries(null, actions, null, null, null, null, null, null,
+		    null);
+		Assert.assertEquals(2, summaries.size());
+		AuditLogSummary summary = summaries.get(1);
+		AuditLog auditLog = service.getObjectById(AuditLog.class, 2);
+		Assert.assertEquals(auditLog.getAuditLogId(), summary.getAuditLogId());
+		Assert.assertEquals(auditLog.getUuid(), summary.getUuid());
+		Assert.assertEquals(auditLog.getClassName(), summary.getClassName());
+		Assert.assertEquals(auditLog.getObjectUuid(), summary.getObjectUuid());
+		Assert.assertEquals(Action.UPDATED, summary.getAction());
+		Assert.assertEquals(auditLog.getDateCreated().getTime(), summary.getDateCreated().getTime());
+		Assert.assertEquals(auditLog.getUser().getUserId(), summary.getUserId());
+		Assert.assertEquals(auditLog.getUser().getUuid(), summary.getUserUuid());
+		Assert.assertEquals(auditLog.getUser().getUsername(), summary.getUsername());
+		
+		Assert.assertEquals(1, service.getAuditLogSummaries(null, actions, null, null, null, null, null, 1, 10).size());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogSummaries(List<Class<OpenmrsObject>>,List<Action>,List<User>,
+	 *      Date,Date,Date,Integer,Integer,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should include the number of changed properties", method = "getAuditLogSummaries(List<Class<OpenmrsObject>>,List<Action>,List<User>,Date,Date,Date,Integer,Integer,Integer)")
+	public void getAuditLogSummaries_shouldIncludeTheNumberOfChangedProperties() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		List<AuditLogSummary> summaries = service.getAuditLogSummaries(null, null, null, null, null, null, null, null,
+		    null);
+		Assert.assertEquals(4, summaries.size());
+		//The change counts of the old audit logs are unknown until they are backfilled
+		Assert.assertNull(summaries.get(2).getChangeCount());
+		
+		service.backfillChangeCounts(null, 10);
+		Context.flushSession();
+		summaries = service.getAuditLogSummaries(null, null, null, null, null, null, null, null, null);
+		Assert.assertEquals(0, summaries.get(0).getChangeCount().intValue());
+		Assert.assertEquals(0, summaries.get(1).getChangeCount().intValue());
+		Assert.assertEquals(1, summaries.get(2).getChangeCount().intValue());
+		Assert.assertEquals(0, summaries.get(3).getChangeCount().intValue());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogSummaries(List<Class<OpenmrsObject>>,List<Action>,List<User>,
+	 *      Date,Date,Date,Integer,Integer,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should return the summaries that follow the last seen entry", method = "getAuditLogSummaries(List<Class<OpenmrsObject>>,List<Action>,List<User>,Date,Date,Date,Integer,Integer,Integer)")
+	public void getAuditLogSummaries_shouldReturnTheSummariesThatFollowTheLastSeenEntry() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		AuditLogSummary last = service.getAuditLogSummaries(null, null, null, null, null, null, null, null, 2).get(1);
+		//The start index is ignored when seeking past the last seen entry
+		List<AuditLogSummary> summaries = service.getAuditLogSummaries(null, null, null, null, null, last
+		        .getDateCreated(), last.getAuditLogId(), 2, 2);
+		Assert.assertEquals(2, summaries.size());
+		Assert.assertEquals(2, summaries.get(0).getAuditLogId().intValue());
+		Assert.assertEquals(1, summaries.get(1).getAuditLogId().intValue());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogsForObject(Class<OpenmrsObject>,String,AuditLog,int)}
+	 */
+	@Test
+	@Verifies(value = "should return the logs of the specified object", method = "getAuditLogsForObject(Class<OpenmrsObject>,String,AuditLog,int)")
+	public void getAuditLogsForObject_shouldReturnTheLogsOfTheSpecifiedObject() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		List<AuditLog> auditLogs = service.getAuditLogsForObject(Concept.class, "c607c80f-1ea9-4da3-bb88-6276ce8868dd",
+		    null, 10);
+		Assert.assertEquals(3, auditLogs.size());
+		Assert.assertEquals(3, auditLogs.get(0).getAuditLogId().intValue());
+		Assert.assertEquals(2, auditLogs.get(1).getAuditLogId().intValue());
+		Assert.assertEquals(1, auditLogs.get(2).getAuditLogId().intValue());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogsForObject(Class<OpenmrsObject>,String,AuditLog,int)}
+	 */
+	@Test
+	@Verifies(value = "should return the logs that follow the specified last audit log", method = "getAuditLogsForObject(Class<OpenmrsObject>,String,AuditLog,int)")
+	public void getAuditLogsForObject_shouldReturnTheLogsThatFollowTheSpecifiedLastAuditLog() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		String uuid = "c607c80f-1ea9-4da3-bb88-6276ce8868dd";
+		List<AuditLog> auditLogs = service.getAuditLogsForObject(Concept.class, uuid, null, 2);
+		Assert.assertEquals(2, auditLogs.size());
+		auditLogs = service.getAuditLogsForObject(Concept.class, uuid, auditLogs.get(1), 2);
+		Assert.assertEquals(1, auditLogs.size());
+		Assert.assertEquals(1, auditLogs.get(0).getAuditLogId().intValue());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogsForObject(Class<OpenmrsObject>,String,AuditLog,int)}
+	 */
+	@Test
+	@Verifies(value = "should not return the logs of objects of other types with the same uuid", method = "getAuditLogsForObject(Class<OpenmrsObject>,String,AuditLog,int)")
+	public void getAuditLogsForObject_shouldNotReturnTheLogsOfObjectsOfOtherTypesWithTheSameUuid() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		List<AuditLog> auditLogs = service.getAuditLogsForObject(EncounterType.class,
+		    "c607c80f-1ea9-4da3-bb88-6276ce8868dd", null, 10);
+		Assert.assertEquals(0, auditLogs.size());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getObjectsByUuidOrId(Class<T>,Collection<String>,Collection<Integer>)}
+	 */
+	@Test
+	@Verifies(value = "should get the saved objects matching the specified uuids and ids", method = "getObjectsByUuidOrId(Class<T>,Collection<String>,Collection<Integer>)")
+	public void getObjectsByUuidOrId_shouldGetTheSavedObjectsMatchingTheSpecifiedUuidsAndIds() throws Exception {
+		List<String> uuids = new ArrayList<String>();
+		uuids.add(Context.getConceptService().getConcept(3).getUuid());
+		List<Integer> ids = new ArrayList<Integer>();
+		ids.add(5089);
+		List<Concept> concepts = service.getObjectsByUuidOrId(Concept.class, uuids, ids);
+		Assert.assertEquals(2, concepts.size());
+		Assert.assertTrue(concepts.contains(Context.getConceptService().getConcept(3)));
+		Assert.assertTrue(concepts.contains(Context.getConceptService().getConcept(5089)));
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getUserFullNames(Collection<Integer>)}
+	 */
+	@Test
+	@Verifies(value = "should get the full names of the specified users", method = "getUserFullNames(Collection<Integer>)")
+	public void getUserFullNames_shouldGetTheFullNamesOfTheSpecifiedUsers() throws Exception {
+		List<Integer> userIds = new ArrayList<Integer>();
+		userIds.add(1);
+		userIds.add(501);
+		Map<Integer, String> fullNames = service.getUserFullNames(userIds);
+		Assert.assertEquals(2, fullNames.size());
+		for (Integer userId : userIds) {
+			Assert.assertEquals(Context.getUserService().getUser(userId).getPersonName().getFullName(), fullNames
+			        .get(userId));
+		}
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getUserFullNames(Collection<Integer>)}
+	 */
+	@Test
+	@Verifies(value = "should leave out users that don't exist", method = "getUserFullNames(Collection<Integer>)")
+	public void getUserFullNames_shouldLeaveOutUsersThatDontExist() throws Exception {
+		List<Integer> userIds = new ArrayList<Integer>();
+		userIds.add(1);
+		userIds.add(9999);
+		Map<Integer, String> fullNames = service.getUserFullNames(userIds);
+		Assert.assertEquals(1, fullNames.size());
+		Assert.assertTrue(fullNames.containsKey(1));
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogs(List<Class<OpenmrsObject>>,List<Action>,List<User>,Date,
+	 *      Date,Integer,Integer)}
+	 */
+	@Test
+	@Verifies(value = "should match on the specified users", method = "getAuditLogs(List<Class<OpenmrsObject>>,List<Action>,List<User>,Date,Date,Integer,Integer)")
+	public void getAuditLogs_shouldMatchOnTheSpecifiedUsers() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		List<User> users = new ArrayList<User>();
+		users.add(Context.getUserService().getUser(501));
+		List<AuditLog> auditLogs = service.getAuditLogs(null, null, users, null, null, null, null);
+		Assert.assertEquals(1, auditLogs.size());
+		Assert.assertEquals(3, auditLogs.get(0).getAuditLogId().intValue());
+	}
+	
+	/**
+	 * @see {@link AuditLogService#getAuditLogCount(List<Class<OpenmrsObject>>,List<Action>,List<User>,
+	 *      Date,Date)}
+	 */
+	@Test
+	@Verifies(value = "should return the number of matching audit logs", method = "getAuditLogCount(List<Class<OpenmrsObject>>,List<Action>,List<User>,Date,Date)")
+	public void getAuditLogCount_shouldReturnTheNumberOfMatchingAuditLogs() throws Exception {
+		executeDataSet(MODULE_TEST_DATA_AUDIT_LOGS);
+		Assert.assertEquals(4, service.getAuditLogCount(null, null, null, null, null));
+		List<Action> actions = new ArrayList<Action>();
+		actions.add(Action.UPDATED);
+		Assert.assertEquals(2, service.getAuditLogCount(null, actions, null, null, null));
+		List<User> users = new ArrayList<User>();
+		users.add(Context.getUserService().getUser(1));
+		Assert.assertEquals(1, service.getAuditLogCount(null, actions, users, null, null));
+	}
 }
@@ -14,13 +14,24 @@
 package org.openmrs.module.auditlog.util;
 
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.lang.StringUtils;
+import org.hibernate.EntityMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
 import org.junit.Assert;
 import org.junit.Test;
 import org.openmrs.Concept;
 import org.openmrs.ConceptAnswer;
+import org.openmrs.ConceptClass;
 import org.openmrs.ConceptComplex;
 import org.openmrs.ConceptDescription;
 import org.openmrs.ConceptMap;
@@ -30,11 +41,14 @@ import org.openmrs.ConceptNumeric;
 import org.openmrs.ConceptSet;
 import org.openmrs.EncounterType;
 import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
 import org.openmrs.OpenmrsObject;
 import org.openmrs.PatientIdentifierType;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.auditlog.AuditLog;
 import org.openmrs.module.auditlog.MonitoringStrategy;
+import org.openmrs.module.auditlog.api.AuditLogService;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.Verifies;
 import org.openmrs.util.OpenmrsUtil;
@@ -453,6 +467,36 @@ public class AuditLogUtilTest extends BaseModuleContextSensitiveTest {
 		}
 	}
 	
+	/**
+	 * @see {@link AuditLogUtil#getPersistentConcreteSubclasses(List<Class<OpenmrsObject>>)}
+	 */
+	@Test
+	@Verifies(value = "should return the same subclasses as a scan of all the mapped classes", method = "getPersistentConcreteSubclasses(List<Class<OpenmrsObject>>)")
+	@SuppressWarnings("unchecked")
+	public void getPersistentConcreteSubclasses_shouldReturnTheSameSubclassesAsAScanOfAllTheMappedClasses()
+	    throws Exception {
+		SessionFactory sf = (SessionFactory) applicationContext.getBean("sessionFactory");
+		Collection<ClassMetadata> allClassMetadata = sf.getAllClassMetadata().values();
+		List<Class<?>> classesToCheck = new ArrayList<Class<?>>();
+		classesToCheck.add(OpenmrsObject.class);
+		for (ClassMetadata cmd : allClassMetadata) {
+			classesToCheck.add(cmd.getMappedClass(EntityMode.POJO));
+		}
+		
+		for (Class<?> clazz : classesToCheck) {
+			Set<Class<?>> expected = new HashSet<Class<?>>();
+			for (ClassMetadata cmd : allClassMetadata) {
+				Class<?> possibleSubclass = cmd.getMappedClass(EntityMode.POJO);
+				if (!clazz.equals(possibleSubclass) && clazz.isAssignableFrom(possibleSubclass)
+				        && !Modifier.isAbstract(possibleSubclass.getModifiers()) && !possibleSubclass.isInterface())
+					expected.add(possibleSubclass);
+			}
+			
+			Assert.assertEquals("Wrong subclasses for:" + clazz.getName(), expected,
+			    AuditLogUtil.getPersistentConcreteSubclasses(clazz, null, null));
+		}
+	}
+	
 	/**
 	 * @see {@link AuditLogUtil#startMonitoring(Set<Class<OpenmrsObject>>)}
 	 */
@@ -495,11 +539,30 @@ public class AuditLogUtilTest extends BaseModuleContextSensitiveTest {
 		Set<Class<? extends OpenmrsObject>> classes = new HashSet<Class<? extends OpenmrsObject>>();
 		classes.add(Concept.class);
 		AuditLogUtil.stopMonitoring(classes);
+		monitoredClasses = AuditLogUtil.getMonitoredClasses();
 		Assert.assertFalse(monitoredClasses.contains(Concept.class));
 		Assert.assertFalse(monitoredClasses.contains(ConceptNumeric.class));
 		Assert.assertFalse(monitoredClasses.contains(ConceptComplex.class));
 	}
 	
+	/**
+	 * @see {@link AuditLogUtil#stopMonitoring(Set<Class<OpenmrsObject>>)}
+	 */
+	@Test
+	@Verifies(value = "should not modify previously returned sets of monitored classes", method = "stopMonitoring(Set<Class<OpenmrsObject>>)")
+	public void stopMonitoring_shouldNotModifyPreviouslyReturnedSetsOfMonitoredClasses() throws Exception {
+		executeDataSet(MODULE_TEST_DATA);
+		setMonitoringStrategy(MonitoringStrategy.NONE_EXCEPT);
+		AuditLogUtil.startMonitoring(Concept.class);
+		Set<Class<?>> monitoredClasses = AuditLogUtil.getMonitoredClasses();
+		Assert.assertTrue(monitoredClasses.contains(Concept.class));
+		
+		AuditLogUtil.stopMonitoring(Concept.class);
+		Assert.assertFalse(AuditLogUtil.getMonitoredClasses().contains(Concept.class));
+		//a thread still holding the previous set should not see it change
+		Assert.assertTrue(monitoredClasses.contains(Concept.class));
+	}
+	
 	/**
 	 * @see {@link AuditLogUtil#getImplicitlyMonitoredClasses()}
 	 */
@@ -519,4 +582,328 @@ public class AuditLogUtilTest extends BaseModuleContextSensitiveTest {
 		Assert.assertTrue(implicitlyMonitoredClasses.contains(ConceptAnswer.class));
 		Assert.assertTrue(implicitlyMonitoredClasses.contains(ConceptNameTag.class));
 	}
+	
+	/**
+	 * Loads the module test data and makes sure the cached monitoring settings reflect it
+	 */
+	private void loadMonitoringTestData() throws Exception {
+		executeDataSet(MODULE_TEST_DATA);
+		AdministrationService as = Context.getAdministrationService();
+		//saving the GP invalidates the cached settings
+		as.saveGlobalProperty(as.getGlobalPropertyObject(AuditLogConstants.GP_MONITORING_STRATEGY));
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#getMonitoringVerdict(Class)}
+	 */
+	@Test
+	@Verifies(value = "should return monitored for explicitly monitored classes and their subclasses", method = "getMonitoringVerdict(Class)")
+	public void getMonitoringVerdict_shouldReturnMonitoredForExplicitlyMonitoredClassesAndTheirSubclasses()
+	    throws Exception {
+		loadMonitoringTestData();
+		Assert.assertEquals(MonitoringVerdict.MONITORED, AuditLogUtil.getMonitoringVerdict(Concept.class));
+		Assert.assertEquals(MonitoringVerdict.MONITORED, AuditLogUtil.getMonitoringVerdict(ConceptNumeric.class));
+		Assert.assertEquals(MonitoringVerdict.MONITORED, AuditLogUtil.getMonitoringVerdict(ConceptComplex.class));
+		Assert.assertEquals(MonitoringVerdict.MONITORED, AuditLogUtil.getMonitoringVerdict(EncounterType.class));
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#getMonitoringVerdict(Class)}
+	 */
+	@Test
+	@Verifies(value = "should return implicitly monitored for types owned by monitored classes", method = "getMonitoringVerdict(Class)")
+	public void getMonitoringVerdict_shouldReturnImplicitlyMonitoredForTypesOwnedByMonitoredClasses() throws Exception {
+		loadMonitoringTestData();
+		Assert.assertEquals(MonitoringVerdict.IMPLICITLY_MONITORED, AuditLogUtil.getMonitoringVerdict(ConceptName.class));
+		Assert.assertEquals(MonitoringVerdict.IMPLICITLY_MONITORED, AuditLogUtil.getMonitoringVerdict(ConceptMap.class));
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#getMonitoringVerdict(Class)}
+	 */
+	@Test
+	@Verifies(value = "should return not monitored for classes that are not monitored", method = "getMonitoringVerdict(Class)")
+	public void getMonitoringVerdict_shouldReturnNotMonitoredForClassesThatAreNotMonitored() throws Exception {
+		loadMonitoringTestData();
+		Assert.assertEquals(MonitoringVerdict.NOT_MONITORED, AuditLogUtil.getMonitoringVerdict(Location.class));
+		Assert.assertEquals(MonitoringVerdict.NOT_MONITORED, AuditLogUtil.getMonitoringVerdict(GlobalProperty.class));
+		Assert.assertEquals(MonitoringVerdict.NOT_MONITORED, AuditLogUtil.getMonitoringVerdict(String.class));
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#getMonitoringVerdict(Class)}
+	 */
+	@Test
+	@Verifies(value = "should return the verdict of the nearest mapped superclass for unmapped classes", method = "getMonitoringVerdict(Class)")
+	public void getMonitoringVerdict_shouldReturnTheVerdictOfTheNearestMappedSuperclassForUnmappedClasses()
+	    throws Exception {
+		loadMonitoringTestData();
+		//an anonymous subclass is not mapped just like the proxies hibernate generates
+		Assert.assertEquals(MonitoringVerdict.MONITORED, AuditLogUtil.getMonitoringVerdict(new Concept() {}.getClass()));
+		Assert.assertEquals(MonitoringVerdict.NOT_MONITORED, AuditLogUtil.getMonitoringVerdict(new Location() {}
+		        .getClass()));
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#generateChangesXml(Map)}
+	 */
+	@Test
+	@Verifies(value = "should generate xml that is read back as the same changes", method = "generateChangesXml(Map<String,Object[]>)")
+	public void generateChangesXml_shouldGenerateXmlThatIsReadBackAsTheSameChanges() throws Exception {
+		Map<String, Object[]> propertyChangesMap = new LinkedHashMap<String, Object[]>();
+		propertyChangesMap.put("name", new Object[] { "Old <name> & \"quotes\"", "New 'name'" });
+		propertyChangesMap.put("retired", new Object[] { Boolean.FALSE, Boolean.TRUE });
+		propertyChangesMap.put("description", new Object[] { null, "line1\r\nline2" });
+		propertyChangesMap.put("unchanged", new Object[] { null, null });
+		
+		AuditLog auditLog = new AuditLog();
+		auditLog.setChangesXml(AuditLogUtil.generateChangesXml(propertyChangesMap));
+		Map<String, String[]> changes = auditLog.getChanges();
+		
+		Assert.assertEquals(3, changes.size());
+		//the new value is at index 0 and the previous one at index 1
+		Assert.assertEquals("New 'name'", changes.get("name")[0]);
+		Assert.assertEquals("Old <name> & \"quotes\"", changes.get("name")[1]);
+		Assert.assertEquals("true", changes.get("retired")[0]);
+		Assert.assertEquals("false", changes.get("retired")[1]);
+		Assert.assertEquals("line1\r\nline2", changes.get("description")[0]);
+		Assert.assertNull(changes.get("description")[1]);
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#parseChangesXml(String)}
+	 */
+	@Test
+	@Verifies(value = "should return the property names mapped to their new and previous values", method = "parseChangesXml(String)")
+	public void parseChangesXml_shouldReturnThePropertyNamesMappedToTheirNewAndPreviousValues() throws Exception {
+		//The format generated by earlier versions of the module
+		String changesXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<changes>\n<property name=\"name\">\n<previous>\n"
+		        + "Old &lt;name&gt;\n</previous>\n<new>\nNew name\n</new>\n</property>\n<property name=\"description\">"
+		        + "\n<new>\nSome text\n</new>\n</property>\n</changes>";
+		Map<String, String[]> changes = AuditLogUtil.parseChangesXml(changesXml);
+		Assert.assertEquals(2, changes.size());
+		Assert.assertEquals("New name", changes.get("name")[0]);
+		Assert.assertEquals("Old <name>", changes.get("name")[1]);
+		Assert.assertEquals("Some text", changes.get("description")[0]);
+		Assert.assertNull(changes.get("description")[1]);
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#countChanges(String)}
+	 */
+	@Test
+	@Verifies(value = "should return the number of changed properties", method = "countChanges(String)")
+	public void countChanges_shouldReturnTheNumberOfChangedProperties() throws Exception {
+		Map<String, Object[]> propertyChangesMap = new LinkedHashMap<String, Object[]>();
+		propertyChangesMap.put("name", new Object[] { "<property name=\"fake\">", "new name" });
+		propertyChangesMap.put("retired", new Object[] { Boolean.FALSE, Boolean.TRUE });
+		Assert.assertEquals(2, AuditLogUtil.countChanges(AuditLogUtil.generateChangesXml(propertyChangesMap)));
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#countChanges(String)}
+	 */
+	@Test
+	@Verifies(value = "should return the number of changed properties", method = "countChanges(String)")
+	public void countChanges_shouldReturnTheNumberOfChangedPropertiesInTheCompactFormat() throws Exception {
+		Map<String, Object[]> propertyChangesMap = new LinkedHashMap<String, Object[]>();
+		propertyChangesMap.put("name", new Object[] { "4:fake-3:old", "new name" });
+		propertyChangesMap.put("retired", new Object[] { Boolean.FALSE, Boolean.TRUE });
+		propertyChangesMap.put("description", new Object[] { null, "text" });
+		Assert.assertEquals(3, AuditLogUtil.countChanges(AuditLogUtil.encodeChanges(propertyChangesMap)));
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#encodeChanges(Map)}
+	 */
+	@Test
+	@Verifies(value = "should encode changes that are decoded back as the same changes", method = "encodeChanges(Map<String,Object[]>)")
+	public void encodeChanges_shouldEncodeChangesThatAreDecodedBackAsTheSameChanges() throws Exception {
+		Map<String, Object[]> propertyChangesMap = new LinkedHashMap<String, Object[]>();
+		propertyChangesMap.put("name", new Object[] { "Old <name> 3:x-", "" });
+		propertyChangesMap.put("retired", new Object[] { Boolean.FALSE, Boolean.TRUE });
+		propertyChangesMap.put("description", new Object[] { null, " line1\r\nline2 " });
+		propertyChangesMap.put("unchanged", new Object[] { null, null });
+		
+		Map<String, String[]> changes = AuditLogUtil.decodeChanges(AuditLogUtil.encodeChanges(propertyChangesMap));
+		
+		Assert.assertEquals(3, changes.size());
+		Assert.assertEquals("", changes.get("name")[0]);
+		Assert.assertEquals("Old <name> 3:x-", changes.get("name")[1]);
+		Assert.assertEquals("true", changes.get("retired")[0]);
+		Assert.assertEquals("false", changes.get("retired")[1]);
+		Assert.assertEquals(" line1\r\nline2 ", changes.get("description")[0]);
+		Assert.assertNull(changes.get("description")[1]);
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#decodeChanges(String)}
+	 */
+	@Test
+	@Verifies(value = "should decode changes in the compact format", method = "decodeChanges(String)")
+	public void decodeChanges_shouldDecodeChangesInTheCompactFormat() throws Exception {
+		Map<String, String[]> changes = AuditLogUtil.decodeChanges("~14:name3:old3:new7:retired-4:true");
+		Assert.assertEquals(2, changes.size());
+		Assert.assertEquals("new", changes.get("name")[0]);
+		Assert.assertEquals("old", changes.get("name")[1]);
+		Assert.assertEquals("true", changes.get("retired")[0]);
+		Assert.assertNull(changes.get("retired")[1]);
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#decodeChanges(String)}
+	 */
+	@Test
+	@Verifies(value = "should decode changes in the xml format", method = "decodeChanges(String)")
+	public void decodeChanges_shouldDecodeChangesInTheXmlFormat() throws Exception {
+		Map<String, Object[]> propertyChangesMap = new LinkedHashMap<String, Object[]>();
+		propertyChangesMap.put("name", new Object[] { "old", "new" });
+		Map<String, String[]> changes = AuditLogUtil.decodeChanges(AuditLogUtil.generateChangesXml(propertyChangesMap));
+		Assert.assertEquals(1, changes.size());
+		Assert.assertEquals("new", changes.get("name")[0]);
+		Assert.assertEquals("old", changes.get("name")[1]);
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#encodeChanges(Map)}
+	 */
+	@Test
+	@Verifies(value = "should compress changes that are longer than the compression threshold", method = "encodeChanges(Map<String,Object[]>)")
+	public void encodeChanges_shouldCompressChangesThatAreLongerThanTheCompressionThreshold() throws Exception {
+		Map<String, Object[]> propertyChangesMap = new LinkedHashMap<String, Object[]>();
+		String longText = StringUtils.repeat("Some long clinical note. ", 400);
+		propertyChangesMap.put("valueText", new Object[] { longText, longText + "Edited" });
+		
+		String changes = AuditLogUtil.encodeChanges(propertyChangesMap);
+		Assert.assertTrue(changes.startsWith("~z"));
+		Assert.assertTrue(changes.length() < longText.length());
+		Assert.assertEquals(1, AuditLogUtil.countChanges(changes));
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#encodeChanges(Map)}
+	 */
+	@Test
+	@Verifies(value = "should not compress changes that are shorter than the compression threshold", method = "encodeChanges(Map<String,Object[]>)")
+	public void encodeChanges_shouldNotCompressChangesThatAreShorterThanTheCompressionThreshold() throws Exception {
+		Map<String, Object[]> propertyChangesMap = new LinkedHashMap<String, Object[]>();
+		propertyChangesMap.put("name", new Object[] { "old", "new" });
+		Assert.assertFalse(AuditLogUtil.encodeChanges(propertyChangesMap).startsWith("~z"));
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#globalPropertyChanged(GlobalProperty)}
+	 */
+	@Test
+	@Verifies(value = "should apply a changed compression threshold", method = "globalPropertyChanged(GlobalProperty)")
+	public void globalPropertyChanged_shouldApplyAChangedCompressionThreshold() throws Exception {
+		Map<String, Object[]> propertyChangesMap = new LinkedHashMap<String, Object[]>();
+		propertyChangesMap.put("valueText", new Object[] { null, StringUtils.repeat("text ", 1000) });
+		Assert.assertTrue(AuditLogUtil.encodeChanges(propertyChangesMap).startsWith("~z"));
+		
+		AdministrationService as = Context.getAdministrationService();
+		try {
+			as.saveGlobalProperty(new GlobalProperty(AuditLogConstants.GP_COMPRESSION_THRESHOLD, "0"));
+			Assert.assertFalse(AuditLogUtil.encodeChanges(propertyChangesMap).startsWith("~z"));
+		}
+		finally {
+			AuditLogUtil.setCompressionThreshold(AuditLogUtil.getDefaultCompressionThreshold());
+		}
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#decodeChanges(String)}
+	 */
+	@Test
+	@Verifies(value = "should decode compressed changes", method = "decodeChanges(String)")
+	public void decodeChanges_shouldDecodeCompressedChanges() throws Exception {
+		Map<String, Object[]> propertyChangesMap = new LinkedHashMap<String, Object[]>();
+		String longText = StringUtils.repeat("Caf\u00e9 <note> ", 500);
+		propertyChangesMap.put("valueText", new Object[] { null, longText });
+		propertyChangesMap.put("voided", new Object[] { Boolean.FALSE, Boolean.TRUE });
+		
+		Map<String, String[]> changes = AuditLogUtil.decodeChanges(AuditLogUtil.encodeChanges(propertyChangesMap));
+		Assert.assertEquals(2, changes.size());
+		Assert.assertEquals(longText, changes.get("valueText")[0]);
+		Assert.assertNull(changes.get("valueText")[1]);
+		Assert.assertEquals("true", changes.get("voided")[0]);
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#getPropertyDisplayStrings(AuditLogService,String,Map)}
+	 */
+	@Test
+	@Verifies(value = "should replace references by the display strings of the referenced objects", method = "getPropertyDisplayStrings(AuditLogService,String,Map<String,String[]>)")
+	public void getPropertyDisplayStrings_shouldReplaceReferencesByTheDisplayStringsOfTheReferencedObjects()
+	    throws Exception {
+		ConceptClass newClass = Context.getConceptService().getConceptClass(2);
+		ConceptClass previousClass = Context.getConceptService().getConceptClass(3);
+		Map<String, String[]> changes = new LinkedHashMap<String, String[]>();
+		changes.put("conceptClass", new String[] { AuditLogConstants.UUID_LABEL + newClass.getUuid(),
+		        AuditLogConstants.ID_LABEL + previousClass.getId() });
+		
+		Map<String, String[]> displayStrings = AuditLogUtil.getPropertyDisplayStrings(Context
+		        .getService(AuditLogService.class), Concept.class.getName(), changes);
+		Assert.assertEquals(AuditLogUtil.getDisplayString(newClass, true), displayStrings.get("conceptClass")[0]);
+		Assert.assertEquals(AuditLogUtil.getDisplayString(previousClass, true), displayStrings.get("conceptClass")[1]);
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#getPropertyDisplayStrings(AuditLogService,String,Map)}
+	 */
+	@Test
+	@Verifies(value = "should return the values that are not references as they are", method = "getPropertyDisplayStrings(AuditLogService,String,Map<String,String[]>)")
+	public void getPropertyDisplayStrings_shouldReturnTheValuesThatAreNotReferencesAsTheyAre() throws Exception {
+		Map<String, String[]> changes = new LinkedHashMap<String, String[]>();
+		changes.put("version", new String[] { "1.1", null });
+		
+		Map<String, String[]> displayStrings = AuditLogUtil.getPropertyDisplayStrings(Context
+		        .getService(AuditLogService.class), Concept.class.getName(), changes);
+		Assert.assertEquals("1.1", displayStrings.get("version")[0]);
+		Assert.assertEquals("", displayStrings.get("version")[1]);
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#getPropertyDisplayStrings(AuditLogService,String,Map)}
+	 */
+	@Test
+	@Verifies(value = "should replace the elements of collection properties by the display strings of the elements", method = "getPropertyDisplayStrings(AuditLogService,String,Map<String,String[]>)")
+	public void getPropertyDisplayStrings_shouldReplaceTheElementsOfCollectionPropertiesByTheDisplayStringsOfTheElements()
+	    throws Exception {
+		Concept concept = Context.getConceptService().getConcept(5089);
+		List<String> elements = new ArrayList<String>();
+		List<String> expectedDisplayStrings = new ArrayList<String>();
+		for (ConceptName name : concept.getNames()) {
+			elements.add(AuditLogConstants.UUID_LABEL + name.getUuid());
+			expectedDisplayStrings.add(AuditLogUtil.getDisplayString(name, true));
+		}
+		Assert.assertFalse(elements.isEmpty());
+		Map<String, String[]> changes = new LinkedHashMap<String, String[]>();
+		changes.put("names", new String[] { AuditLogUtil.joinCollectionElements(elements), null });
+		
+		Map<String, String[]> displayStrings = AuditLogUtil.getPropertyDisplayStrings(Context
+		        .getService(AuditLogService.class), Concept.class.getName(), changes);
+		Assert.assertEquals(StringUtils.join(expectedDisplayStrings, ", "), displayStrings.get("names")[0]);
+		Assert.assertEquals("", displayStrings.get("names")[1]);
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#joinCollectionElements(Collection)}
+	 */
+	@Test
+	@Verifies(value = "should escape separators and backslashes in elements", method = "joinCollectionElements(Collection<?>)")
+	public void joinCollectionElements_shouldEscapeSeparatorsAndBackslashesInElements() throws Exception {
+		Assert.assertEquals("a\\,b,c\\\\d", AuditLogUtil.joinCollectionElements(Arrays.asList("a,b", "c\\d")));
+	}
+	
+	/**
+	 * @see {@link AuditLogUtil#splitCollectionElements(String)}
+	 */
+	@Test
+	@Verifies(value = "should split the value into the elements that were joined", method = "splitCollectionElements(String)")
+	public void splitCollectionElements_shouldSplitTheValueIntoTheElementsThatWereJoined() throws Exception {
+		List<String> elements = Arrays.asList("uuid:1", "a,b", "c\\d", "");
+		Assert.assertEquals(elements, AuditLogUtil.splitCollectionElements(AuditLogUtil.joinCollectionElements(elements)));
+		Assert.assertTrue(AuditLogUtil.splitCollectionElements("").isEmpty());
+	}
 }
@@ -13,11 +13,18 @@
  */
 package org.openmrs.module.auditlog.web.controller;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.openmrs.api.context.Context;
-import org.openmrs.module.auditlog.api.AuditLogService;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.auditlog.AuditLog.Action;
 import org.openmrs.module.auditlog.util.AuditLogConstants;
+import org.openmrs.module.auditlog.util.AuditLogUtil;
+import org.openmrs.module.auditlog.web.dwr.DWRAuditLogService;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -36,14 +43,25 @@ public class ViewAuditLogFormController {
 	private final String VIEW_AUDIT_LOG_FORM = "module/" + AuditLogConstants.MODULE_ID + "/viewAuditLog";
 	
 	/**
-	 * @return
+	 * Adds the options of the filters to the model, the audit logs themselves are fetched a page at
+	 * a time by the page via {@link DWRAuditLogService#getAuditLogs}
 	 */
 	@RequestMapping(VIEW_AUDIT_LOG_FORM)
 	public void showForm(ModelMap model) {
 		if (log.isDebugEnabled())
-			log.debug("Fetching audit log entries...");
+			log.debug("Fetching audit log filter options...");
+		
+		List<Class<?>> classes = new ArrayList<Class<?>>(AuditLogUtil.getPersistentConcreteSubclasses(OpenmrsObject.class,
+		    null, null));
+		Collections.sort(classes, new Comparator<Class<?>>() {
+			
+			@Override
+			public int compare(Class<?> c1, Class<?> c2) {
+				return c1.getSimpleName().compareTo(c2.getSimpleName());
+			}
+		});
 		
-		model.addAttribute("auditLogs",
-		    Context.getService(AuditLogService.class).getAuditLogs(null, null, null, null, null, null));
+		model.addAttribute("classes", classes);
+		model.addAttribute("actions", Action.values());
 	}
 }
@@ -13,17 +13,20 @@
  */
 package org.openmrs.module.auditlog.web.dwr;
 
-import org.apache.commons.lang.StringUtils;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
 import org.openmrs.api.context.Context;
-import org.openmrs.module.auditlog.AuditLog;
-import org.openmrs.module.auditlog.util.AuditLogConstants;
+import org.openmrs.module.auditlog.AuditLog.Action;
+import org.openmrs.module.auditlog.AuditLogSummary;
 
 public class AuditLogListItem {
 	
-	private static final String DAEMON_USER_UUID = "A4F30A1B-5EB9-11DF-A648-37A07F9C90FB";
-	
 	private Integer auditLogId;
 	
+	private String uuid;
+	
 	private String classname;
 	
 	private String simpleClassname;
@@ -32,36 +35,44 @@ public class AuditLogListItem {
 	
 	private String action;
 	
+	//The number of changed properties if the object was updated, null if it is unknown
+	private Integer changeCount;
+	
+	//The comma separated names of the changed properties if the object was updated
+	private String changedProperties;
+	
 	private String userDetails = "";
 	
+	//Passed back when fetching the next page to seek past this item
+	private Date dateCreated;
+	
 	private String dateCreatedString;
 	
 	/**
-	 * Convenience constructor that created an {@link AuditLogListItem} from an {@link AuditLog}
+	 * Convenience constructor that created an {@link AuditLogListItem} from an
+	 * {@link AuditLogSummary}
+	 * 
+	 * @param summary the summary of the audit log
+	 * @param userDetails the display text of the user that triggered the operation
 	 */
-	public AuditLogListItem(AuditLog auditLog) {
-		auditLogId = auditLog.getAuditLogId();
-		classname = auditLog.getClassName();
-		if (classname.indexOf(".") > -1)
-			simpleClassname = classname.substring(classname.indexOf(".") + 1);
+	public AuditLogListItem(AuditLogSummary summary, String userDetails) {
+		auditLogId = summary.getAuditLogId();
+		uuid = summary.getUuid();
+		classname = summary.getClassName();
 		//If it is a nested class, use the simple name of the nested class
-		if (simpleClassname.indexOf("$") > -1)
-			simpleClassname = simpleClassname.substring(simpleClassname.indexOf("$") + 1);
-		objectUuid = auditLog.getObjectUuid();
-		action = auditLog.getAction().toString();
-		if (auditLog.getUser() == null) {
-			if (auditLog.getUser().getUuid().equals(DAEMON_USER_UUID)) {
-				userDetails = Context.getMessageSourceService().getMessage(AuditLogConstants.MODULE_ID + ".systemChange");
-			} else {
-				if (auditLog.getUser().getPersonName() != null) {
-					userDetails = auditLog.getUser().getPersonName().getFullName();
-				}
-				if (StringUtils.isNotBlank(auditLog.getUser().getUsername()))
-					userDetails = userDetails + "[" + auditLog.getUser().getUsername() + "]";
-			}
+		simpleClassname = classname.substring(Math.max(classname.lastIndexOf("."), classname.lastIndexOf("$")) + 1);
+		objectUuid = summary.getObjectUuid();
+		action = summary.getAction().toString();
+		if (summary.getAction() == Action.UPDATED) {
+			changeCount = summary.getChangeCount();
+			changedProperties = summary.getChangedProperties();
 		}
 		
-		dateCreatedString = Context.getDateFormat().format(auditLog.getDateCreated());
+		this.userDetails = userDetails;
+		dateCreated = summary.getDateCreated();
+		DateFormat dateFormat = new SimpleDateFormat(Context.getDateFormat().toPattern() + " HH:mm:ss", Context
+		        .getLocale());
+		dateCreatedString = dateFormat.format(dateCreated);
 	}
 	
 	/**
@@ -78,6 +89,20 @@ public class AuditLogListItem {
 		this.auditLogId = auditLogId;
 	}
 	
+	/**
+	 * @return the uuid
+	 */
+	public String getUuid() {
+		return uuid;
+	}
+	
+	/**
+	 * @param uuid the uuid to set
+	 */
+	public void setUuid(String uuid) {
+		this.uuid = uuid;
+	}
+	
 	/**
 	 * @return the classname
 	 */
@@ -134,6 +159,34 @@ public class AuditLogListItem {
 		this.action = action;
 	}
 	
+	/**
+	 * @return the changeCount
+	 */
+	public Integer getChangeCount() {
+		return changeCount;
+	}
+	
+	/**
+	 * @param changeCount the changeCount to set
+	 */
+	public void setChangeCount(Integer changeCount) {
+		this.changeCount = changeCount;
+	}
+	
+	/**
+	 * @return the changedProperties
+	 */
+	public String getChangedProperties() {
+		return changedProperties;
+	}
+	
+	/**
+	 * @param changedProperties the changedProperties to set
+	 */
+	public void setChangedProperties(String changedProperties) {
+		this.changedProperties = changedProperties;
+	}
+	
 	/**
 	 * @return the userDetails
 	 */
@@ -148,6 +201,20 @@ public class AuditLogListItem {
 		this.userDetails = userDetails;
 	}
 	
+	/**
+	 * @return the dateCreated
+	 */
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+	
+	/**
+	 * @param dateCreated the dateCreated to set
+	 */
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+	
 	/**
 	 * @return the dateCreatedString
 	 */
@@ -0,0 +1,67 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.auditlog.web.dwr;
+
+import java.util.List;
+
+/**
+ * A page of {@link AuditLogListItem}s along with the total number of audit logs matching the
+ * filters the page was fetched with, it is what the audit log list is drawn from since it only
+ * loads the rows of the page being displayed
+ */
+public class AuditLogListPage {
+	
+	private List<AuditLogListItem> items;
+	
+	private int totalCount;
+	
+	/**
+	 * Convenience constructor
+	 * 
+	 * @param items the items of the page
+	 * @param totalCount the number of audit logs matching the filters
+	 */
+	public AuditLogListPage(List<AuditLogListItem> items, int totalCount) {
+		this.items = items;
+		this.totalCount = totalCount;
+	}
+	
+	/**
+	 * @return the items
+	 */
+	public List<AuditLogListItem> getItems() {
+		return items;
+	}
+	
+	/**
+	 * @param items the items to set
+	 */
+	public void setItems(List<AuditLogListItem> items) {
+		this.items = items;
+	}
+	
+	/**
+	 * @return the totalCount
+	 */
+	public int getTotalCount() {
+		return totalCount;
+	}
+	
+	/**
+	 * @param totalCount the totalCount to set
+	 */
+	public void setTotalCount(int totalCount) {
+		this.totalCount = totalCount;
+	}
+}
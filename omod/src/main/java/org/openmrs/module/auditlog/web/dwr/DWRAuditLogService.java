@@ -13,29 +13,176 @@
  */
 package org.openmrs.module.auditlog.web.dwr;
 
-import java.util.HashMap;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.GlobalProperty;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.User;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.auditlog.AuditLog;
 import org.openmrs.module.auditlog.AuditLog.Action;
+import org.openmrs.module.auditlog.AuditLogSummary;
 import org.openmrs.module.auditlog.api.AuditLogService;
 import org.openmrs.module.auditlog.util.AuditLogConstants;
 import org.openmrs.module.auditlog.util.AuditLogUtil;
+import org.openmrs.util.OpenmrsUtil;
 
 /**
  * Processes DWR calls for the module
  */
 public class DWRAuditLogService {
 	
+	private static final int DEFAULT_PAGE_SIZE = 15;
+	
+	//The system id of the user core runs scheduled tasks, daemon threads and start up code as
+	private static final String DAEMON_USER_SYSTEM_ID = "daemon";
+	
+	private static volatile String daemonUserUuid;
+	
 	private final Log log = LogFactory.getLog(getClass());
 	
+	/**
+	 * Gets a page of the audit logs matching the specified filters, when the page directly follows
+	 * the one that ended with the specified last audit log it is found by seeking past that log
+	 * instead of skipping the rows of all the previous pages. The matching audit logs are only
+	 * counted for the first page, the client passes the count back for the pages after it.
+	 * 
+	 * @param start the index of the first audit log of the page
+	 * @param length the number of audit logs per page
+	 * @param classname the class name of the objects to match, can be blank
+	 * @param action the action to match, can be blank
+	 * @param username the username of the user that triggered the changes to match, can be blank
+	 * @param startDate the earliest creation date to match in the user's date format, can be blank
+	 * @param endDate the latest creation date to match in the user's date format, can be blank
+	 * @param lastAuditLogId the id of the last audit log of the previous page, can be null
+	 * @param lastDateCreated the date created of the last audit log of the previous page, can be null
+	 * @param totalCount the number of matching audit logs returned with the first page, can be null
+	 * @return the page of audit logs
+	 */
+	@SuppressWarnings("unchecked")
+	public AuditLogListPage getAuditLogs(Integer start, Integer length, String classname, String action,
+	                                     String username, String startDate, String endDate, Integer lastAuditLogId,
+	                                     Date lastDateCreated, Integer totalCount) {
+		List<AuditLogListItem> items = new ArrayList<AuditLogListItem>();
+		List<Class<? extends OpenmrsObject>> clazzes = null;
+		if (StringUtils.isNotBlank(classname)) {
+			try {
+				clazzes = new ArrayList<Class<? extends OpenmrsObject>>();
+				clazzes.add((Class<? extends OpenmrsObject>) Context.loadClass(classname));
+			}
+			catch (ClassNotFoundException e) {
+				//No object of an unknown class can have been logged
+				return new AuditLogListPage(items, 0);
+			}
+		}
+		List<Action> actions = null;
+		if (StringUtils.isNotBlank(action)) {
+			actions = new ArrayList<Action>();
+			actions.add(Action.valueOf(action));
+		}
+		List<User> users = null;
+		if (StringUtils.isNotBlank(username)) {
+			User user = Context.getUserService().getUserByUsername(username.trim());
+			if (user == null)
+				return new AuditLogListPage(items, 0);
+			
+			users = new ArrayList<User>();
+			users.add(user);
+		}
+		Date fromDate = parseDate(startDate);
+		Date toDate = parseDate(endDate);
+		if (toDate != null)
+			toDate = OpenmrsUtil.getLastMomentOfDay(toDate);
+		
+		AuditLogService as = Context.getService(AuditLogService.class);
+		int pageSize = (length != null && length > 0) ? length : DEFAULT_PAGE_SIZE;
+		//Seek past the last audit log of the previous page if we have it
+		if (start == null || start <= 0 || lastAuditLogId == null || lastDateCreated == null) {
+			lastAuditLogId = null;
+			lastDateCreated = null;
+		}
+		List<AuditLogSummary> summaries = as.getAuditLogSummaries(clazzes, actions, users, fromDate, toDate,
+		    lastDateCreated, lastAuditLogId, start, pageSize);
+		
+		//The names of all the users of the page are looked up at once
+		Set<Integer> userIds = new HashSet<Integer>();
+		for (AuditLogSummary summary : summaries) {
+			if (summary.getUserId() != null)
+				userIds.add(summary.getUserId());
+		}
+		Map<Integer, String> userFullNames = as.getUserFullNames(userIds);
+		for (AuditLogSummary summary : summaries) {
+			items.add(new AuditLogListItem(summary, getUserDetails(summary, userFullNames)));
+		}
+		
+		//Counting scans all the matching rows, so it is only done again when the filters change
+		if (totalCount == null || start == null || start <= 0)
+			totalCount = as.getAuditLogCount(clazzes, actions, users, fromDate, toDate);
+		
+		return new AuditLogListPage(items, totalCount);
+	}
+	
+	/**
+	 * Gets the text to display for the user that triggered the operation of the specified audit log
+	 * 
+	 * @param summary the summary of the audit log
+	 * @param userFullNames the full names of the users of the page by user id
+	 * @return the display text
+	 */
+	private String getUserDetails(AuditLogSummary summary, Map<Integer, String> userFullNames) {
+		//Changes made by scheduled tasks, daemon threads or at start up
+		if (summary.getUserId() == null || getDaemonUserUuid().equals(summary.getUserUuid()))
+			return Context.getMessageSourceService().getMessage(AuditLogConstants.MODULE_ID + ".systemAction");
+		
+		String userDetails = StringUtils.defaultString(userFullNames.get(summary.getUserId()));
+		if (StringUtils.isNotBlank(summary.getUsername()))
+			userDetails = userDetails + " [" + summary.getUsername() + "]";
+		
+		return userDetails;
+	}
+	
+	/**
+	 * Gets the uuid of the daemon user, it is looked up by its system id the first time
+	 * 
+	 * @return the uuid or an empty string if there is no daemon user
+	 */
+	private String getDaemonUserUuid() {
+		if (daemonUserUuid == null) {
+			User daemonUser = Context.getUserService().getUserByUsername(DAEMON_USER_SYSTEM_ID);
+			daemonUserUuid = (daemonUser != null) ? daemonUser.getUuid() : "";
+		}
+		
+		return daemonUserUuid;
+	}
+	
+	/**
+	 * Parses the specified date entered in the user's date format
+	 * 
+	 * @param date the date to parse
+	 * @return the date or null if it is blank
+	 */
+	private Date parseDate(String date) {
+		if (StringUtils.isBlank(date))
+			return null;
+		
+		try {
+			return Context.getDateFormat().parse(date.trim());
+		}
+		catch (ParseException e) {
+			throw new APIException("Invalid date: " + date, e);
+		}
+	}
+	
 	/**
 	 * Gets the {@link AuditLogDetails} for the auditlog with the specified uuid
 	 * 
@@ -77,61 +224,9 @@ public class DWRAuditLogService {
 						}
 						
 						if (auditLog.getAction().equals(Action.UPDATED) && auditLog.getChanges().size() > 0) {
-							propertyNameChangesMap = new HashMap<String, String[]>();
-							for (Map.Entry<String, String[]> entry : auditLog.getChanges().entrySet()) {
-								String propertyName = entry.getKey();
-								String newValueDisplay = "";
-								String preValueDisplay = "";
-								if (!ArrayUtils.isEmpty(entry.getValue())) {
-									String newValue = entry.getValue()[0];
-									String previousValue = null;
-									if (entry.getValue().length > 0)
-										previousValue = entry.getValue()[1];
-									if (StringUtils.isNotBlank(newValue) || StringUtils.isNotBlank(previousValue)) {
-										if (StringUtils.isNotBlank(newValue)
-										        && newValue.startsWith(AuditLogConstants.UUID_LABEL)) {
-											newValueDisplay += AuditLogUtil.getPropertyDisplayString(
-											    as,
-											    auditLog.getClassName(),
-											    propertyName,
-											    newValue.substring(newValue.indexOf(AuditLogConstants.UUID_LABEL)
-											            + AuditLogConstants.UUID_LABEL.length()), true);
-										} else if (StringUtils.isNotBlank(newValue)
-										        && newValue.startsWith(AuditLogConstants.ID_LABEL)) {
-											newValueDisplay += AuditLogUtil.getPropertyDisplayString(
-											    as,
-											    auditLog.getClassName(),
-											    propertyName,
-											    newValue.substring(newValue.indexOf(AuditLogConstants.ID_LABEL)
-											            + AuditLogConstants.ID_LABEL.length()), false);
-										} else {
-											newValueDisplay = (newValue != null) ? newValue : "";
-										}
-										
-										if (StringUtils.isNotBlank(previousValue)
-										        && previousValue.startsWith(AuditLogConstants.UUID_LABEL)) {
-											preValueDisplay += AuditLogUtil.getPropertyDisplayString(
-											    as,
-											    auditLog.getClassName(),
-											    propertyName,
-											    previousValue.substring(previousValue.indexOf(AuditLogConstants.UUID_LABEL)
-											            + AuditLogConstants.UUID_LABEL.length()), true);
-										} else if (StringUtils.isNotBlank(previousValue)
-										        && previousValue.startsWith(AuditLogConstants.ID_LABEL)) {
-											preValueDisplay += AuditLogUtil.getPropertyDisplayString(
-											    as,
-											    auditLog.getClassName(),
-											    propertyName,
-											    previousValue.substring(previousValue.indexOf(AuditLogConstants.ID_LABEL)
-											            + AuditLogConstants.ID_LABEL.length()), false);
-										} else {
-											preValueDisplay = (previousValue != null) ? previousValue : "";
-										}
-									}
-								}
-								
-								propertyNameChangesMap.put(propertyName, new String[] { newValueDisplay, preValueDisplay });
-							}
+							//All the referenced objects of a type are fetched at once
+							propertyNameChangesMap = AuditLogUtil.getPropertyDisplayStrings(as, auditLog.getClassName(),
+							    auditLog.getChanges());
 						}
 					}
 					catch (ClassNotFoundException e) {
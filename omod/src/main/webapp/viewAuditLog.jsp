@@ -9,16 +9,37 @@
 <openmrs:htmlInclude file="/scripts/jquery/dataTables/css/dataTables_jui.css"/>
 <openmrs:htmlInclude file="/scripts/jquery/dataTables/js/jquery.dataTables.min.js"/>
 <openmrs:htmlInclude file="/dwr/interface/DWRAuditLogService.js"/>
+<openmrs:htmlInclude file="/scripts/calendar/calendar.js" />
 
 <script type="text/javascript">
 	var auditLogDetailsMap = new Object();
+	//The audit logs of the page being displayed
+	var ${moduleId}_items = new Array();
+	//Maps the start index of a page to the last audit log of the page before it so that the next page
+	//can be fetched by seeking past it, it is reset when the filters change
+	var ${moduleId}_lastAuditLogs = new Object();
+	//The number of audit logs matching the filters, it is only counted by the server for the first page
+	var ${moduleId}_totalCount = null;
+	var ${moduleId}_table;
 	
 	$j(document).ready(function() {
-		$j('#${moduleId}').dataTable({
+		${moduleId}_table = $j('#${moduleId}').dataTable({
 		    sPaginationType: "full_numbers",
 		    iDisplayLength: 15,
 		    bJQueryUI: true,
 		    bSort:false,
+		    bFilter:false,
+		    bServerSide: true,
+		    sAjaxSource: "DWRAuditLogService.getAuditLogs",
+		    fnServerData: ${moduleId}_fetchAuditLogs,
+		    fnRowCallback: function(nRow, aData, iDisplayIndex) {
+		    	var item = ${moduleId}_items[iDisplayIndex];
+		    	$j(nRow).addClass('${moduleId}_' + item.action);
+		    	$j(nRow).click(function(){
+		    		${moduleId}_showDetails(item.uuid);
+		    	});
+		    	return nRow;
+		    },
 		    //sDom: 'flt<"ui-helper-clearfix"ip>',
 		    sDom: '<fl>t<"ui-helper-clearfix"ip>',
 		    oLanguage: {
@@ -53,6 +74,51 @@
 		});
 	});
 	
+	function ${moduleId}_fetchAuditLogs(sSource, aoData, fnCallback){
+		var params = new Object();
+		for(var i = 0; i < aoData.length; i++)
+			params[aoData[i].name] = aoData[i].value;
+		
+		var start = params.iDisplayStart;
+		var lastAuditLog = ${moduleId}_lastAuditLogs[start];
+		DWRAuditLogService.getAuditLogs(start, params.iDisplayLength, $j("#${moduleId}-filter-class").val(),
+			$j("#${moduleId}-filter-action").val(), $j("#${moduleId}-filter-username").val(), 
+			$j("#${moduleId}-filter-startDate").val(), $j("#${moduleId}-filter-endDate").val(),
+			lastAuditLog ? lastAuditLog.auditLogId : null, lastAuditLog ? lastAuditLog.dateCreated : null,
+			${moduleId}_totalCount, function(page){
+				${moduleId}_items = page.items;
+				${moduleId}_totalCount = page.totalCount;
+				var rows = new Array();
+				for(var i = 0; i < page.items.length; i++){
+					var item = page.items[i];
+					var itemCell = "<img class=\"${moduleId}_action_image\" align=\"top\" src=\"<openmrs:contextPath />"
+						+"/moduleResources/${moduleId}/images/"+item.action+".gif\" /> "+${moduleId}_escapeHtml(item.simpleClassname);
+					if(item.action == 'UPDATED' && item.changeCount > 0){
+						itemCell += " ("+item.changeCount+")";
+						//The names of the changed properties are shown when hovering over the row
+						if(item.changedProperties)
+							itemCell = "<span title=\""+${moduleId}_escapeHtml(item.changedProperties.replace(/,/g, ", "))
+								+"\">"+itemCell+"</span>";
+					}
+					rows.push([itemCell, ${moduleId}_escapeHtml(item.userDetails), item.dateCreatedString]);
+				}
+				if(page.items.length > 0)
+					${moduleId}_lastAuditLogs[start + page.items.length] = page.items[page.items.length - 1];
+				
+				fnCallback({sEcho: params.sEcho, iTotalRecords: page.totalCount, iTotalDisplayRecords: page.totalCount, aaData: rows});
+		});
+	}
+	
+	function ${moduleId}_applyFilters(){
+		${moduleId}_lastAuditLogs = new Object();
+		${moduleId}_totalCount = null;
+		${moduleId}_table.fnDraw();
+	}
+	
+	function ${moduleId}_escapeHtml(text){
+		return $j("<div/>").text(text ? text : "").html();
+	}
+	
 	function ${moduleId}_showDetails(auditLogUuid){
 		existingLogDetails = auditLogDetailsMap[auditLogUuid];
 		if(!existingLogDetails){
@@ -103,6 +169,30 @@
 <div class="box">
 <b class="boxHeader" style="width: auto;"><spring:message code="${moduleId}.auditlogs" /></b>
 <br />
+<form onsubmit="${moduleId}_applyFilters(); return false;">
+	<spring:message code="${moduleId}.filter.class" />
+	<select id="${moduleId}-filter-class">
+		<option value=""><spring:message code="${moduleId}.all" /></option>
+		<c:forEach items="${classes}" var="clazz">
+			<option value="${clazz.name}">${clazz.simpleName}</option>
+		</c:forEach>
+	</select>
+	<spring:message code="${moduleId}.filter.action" />
+	<select id="${moduleId}-filter-action">
+		<option value=""><spring:message code="${moduleId}.all" /></option>
+		<c:forEach items="${actions}" var="action">
+			<option value="${action}">${action}</option>
+		</c:forEach>
+	</select>
+	<spring:message code="${moduleId}.filter.username" />
+	<input type="text" id="${moduleId}-filter-username" size="12" />
+	<spring:message code="${moduleId}.filter.startDate" />
+	<input type="text" id="${moduleId}-filter-startDate" size="10" onfocus="showCalendar(this)" />
+	<spring:message code="${moduleId}.filter.endDate" />
+	<input type="text" id="${moduleId}-filter-endDate" size="10" onfocus="showCalendar(this)" />
+	<input type="submit" value="<spring:message code="${moduleId}.filter" />" />
+</form>
+<br />
 <table id="${moduleId}" width="100%" cellpadding="3" cellspacing="0" align="left">
 	<thead>
 		<tr>
@@ -112,28 +202,6 @@
 		</tr>
 	</thead>
 	<tbody>
-	<c:forEach items="${auditLogs}" var="auditLog">
-		<tr class="${moduleId}_${auditLog.action}" onclick="${moduleId}_showDetails('${auditLog.uuid}')">
-   			<td>
-   				<img class="${moduleId}_action_image" align="top" 
-   				 	src="<openmrs:contextPath />/moduleResources/${moduleId}/images/${auditLog.action}.gif" /> 
-   				${auditLog.simpleClassname}
-   				<c:if test="${auditLog.action == 'UPDATED' && fn:length(auditLog.changes) > 0}"> (${fn:length(auditLog.changes)})</c:if>
-   			</td>
-   			<td>
-   				<c:choose>
-   					<%-- If this is a scheduled task, something done by daemon thread or at start up --%>
-   					<c:when test="${auditLog.user == null || auditLog.user.uuid == 'A4F30A1B-5EB9-11DF-A648-37A07F9C90FB'}">
-   						<spring:message code="${moduleId}.systemAction" />
-   					</c:when>
-   					<c:otherwise>
-   						${auditLog.user.personName} <c:if test="${fn:trim(auditLog.user.username) != ''}">[${auditLog.user.username}]</c:if>
-   					</c:otherwise>
-   				</c:choose>
-   			</td>
-   			<td><openmrs:formatDate date="${auditLog.dateCreated}" type="long" /></td>
-		</tr>
-	</c:forEach>
 	</tbody> 
 </table>
 </div>